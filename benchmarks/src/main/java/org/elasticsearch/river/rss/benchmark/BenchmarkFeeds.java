@@ -0,0 +1,103 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss.benchmark;
+
+import com.rometools.rome.feed.synd.SyndEntry;
+import com.rometools.rome.io.SyndFeedInput;
+import com.rometools.rome.io.XmlReader;
+import org.elasticsearch.common.Charsets;
+import org.elasticsearch.common.io.Streams;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Feeds used by benchmarks: fixtures we use in tests (lemonde, reuters...) and synthetic
+ * feeds named "synthetic-&lt;number of items&gt;".
+ */
+public class BenchmarkFeeds {
+    public static final String SYNTHETIC = "synthetic-";
+
+    /**
+     * @param name fixture name (src/test/resources/&lt;name&gt;/rss.xml) or synthetic-&lt;items&gt;
+     * @return raw feed content
+     */
+    public static byte[] load(String name) throws IOException {
+        if (name.startsWith(SYNTHETIC)) {
+            return synthetic(Integer.parseInt(name.substring(SYNTHETIC.length())));
+        }
+        InputStream is = BenchmarkFeeds.class.getResourceAsStream("/" + name + "/rss.xml");
+        if (is == null) {
+            throw new IllegalArgumentException("Unknown feed [" + name + "]");
+        }
+        return Streams.copyToByteArray(is);
+    }
+
+    /**
+     * Parse a feed with rome
+     */
+    public static List<SyndEntry> entries(byte[] feed) throws Exception {
+        return new SyndFeedInput().build(new XmlReader(new ByteArrayInputStream(feed))).getEntries();
+    }
+
+    /**
+     * Generate a RSS 2.0 feed. Descriptions have random sizes so we don't only benchmark tiny items.
+     * @param items number of items
+     */
+    public static byte[] synthetic(int items) {
+        Random random = new Random(items);
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<rss version=\"2.0\" xmlns:geo=\"http://www.w3.org/2003/01/geo/wgs84_pos#\">\n");
+        sb.append("<channel>\n");
+        sb.append("<title>Synthetic feed</title>\n");
+        sb.append("<link>http://www.example.com/</link>\n");
+        sb.append("<description>Synthetic feed with ").append(items).append(" items</description>\n");
+        sb.append("<pubDate>Mon, 01 Dec 2014 10:00:00 +0000</pubDate>\n");
+        sb.append("<ttl>15</ttl>\n");
+        for (int i = 0; i < items; i++) {
+            sb.append("<item>\n");
+            sb.append("<title>Item ").append(i).append("</title>\n");
+            sb.append("<link>http://www.example.com/items/").append(i).append("</link>\n");
+            sb.append("<guid>http://www.example.com/items/").append(i).append("</guid>\n");
+            sb.append("<author>author").append(i % 10).append("@example.com</author>\n");
+            sb.append("<category>category").append(i % 5).append("</category>\n");
+            sb.append("<pubDate>Mon, 01 Dec 2014 ").append(String.format("%02d:%02d", (i / 60) % 24, i % 60))
+                    .append(":00 +0000</pubDate>\n");
+            sb.append("<description><![CDATA[<p>");
+            int words = 20 + random.nextInt(500);
+            for (int w = 0; w < words; w++) {
+                sb.append("word").append(random.nextInt(1000)).append(' ');
+            }
+            sb.append("</p>]]></description>\n");
+            sb.append("<geo:lat>").append(random.nextDouble() * 90).append("</geo:lat>\n");
+            sb.append("<geo:long>").append(random.nextDouble() * 180).append("</geo:long>\n");
+            sb.append("<enclosure url=\"http://www.example.com/items/").append(i)
+                    .append(".jpg\" length=\"1024\" type=\"image/jpeg\"/>\n");
+            sb.append("</item>\n");
+        }
+        sb.append("</channel>\n");
+        sb.append("</rss>\n");
+        return sb.toString().getBytes(Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss.benchmark;
+
+import com.rometools.rome.feed.synd.SyndFeed;
+import com.rometools.rome.io.SyndFeedInput;
+import com.rometools.rome.io.XmlReader;
+import org.elasticsearch.river.rss.RssStaxFeedReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a whole feed with rome (SyndFeedInput) compared to the streaming StAX reader.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FeedParsingBenchmark {
+
+    @Param({"lemonde", "lefigaro", "reuters", "nytimes", "dcrainmaker", "darkreading", "feedforall",
+            "malwaredomains", "synthetic-1000", "synthetic-10000"})
+    public String feed;
+
+    private byte[] content;
+
+    @Setup
+    public void setup() throws Exception {
+        content = BenchmarkFeeds.load(feed);
+    }
+
+    @Benchmark
+    public SyndFeed syndFeedInput() throws Exception {
+        SyndFeedInput input = new SyndFeedInput();
+        input.setPreserveWireFeed(true);
+        return input.build(new XmlReader(new ByteArrayInputStream(content)));
+    }
+
+    @Benchmark
+    public void stax(Blackhole blackhole) throws Exception {
+        RssStaxFeedReader reader = new RssStaxFeedReader(new XmlReader(new ByteArrayInputStream(content)));
+        try {
+            while (reader.hasNext()) {
+                blackhole.consume(reader.next());
+            }
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss.benchmark;
+
+import com.rometools.rome.feed.synd.SyndEntry;
+import org.elasticsearch.river.rss.RssDocumentId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generating document ids for all entries of a feed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IdGenerationBenchmark {
+
+    @Param({"lemonde", "reuters", "nytimes", "dcrainmaker", "malwaredomains", "synthetic-1000"})
+    public String feed;
+
+    private List<SyndEntry> entries;
+
+    @Setup
+    public void setup() throws Exception {
+        entries = BenchmarkFeeds.entries(BenchmarkFeeds.load(feed));
+    }
+
+    /**
+     * What RSSParser does today: MD5 over the description
+     */
+    @Benchmark
+    public void nameUUIDFromDescription(Blackhole blackhole) {
+        for (SyndEntry entry : entries) {
+            String description = "";
+            if (entry.getDescription() != null) {
+                description = entry.getDescription().getValue();
+            }
+            blackhole.consume(UUID.nameUUIDFromBytes(description.getBytes()).toString());
+        }
+    }
+
+    /**
+     * What RSSParser does with id_strategy: legacy
+     */
+    @Benchmark
+    public void legacyStrategy(Blackhole blackhole) {
+        for (SyndEntry entry : entries) {
+            blackhole.consume(RssDocumentId.id(RssDocumentId.Strategy.LEGACY, entry));
+        }
+    }
+
+    /**
+     * What RSSParser does with id_strategy: guid
+     */
+    @Benchmark
+    public void guidStrategy(Blackhole blackhole) {
+        for (SyndEntry entry : entries) {
+            blackhole.consume(RssDocumentId.id(RssDocumentId.Strategy.GUID, entry));
+        }
+    }
+
+    /**
+     * Fallback of the guid strategy when entries have neither guid nor link
+     */
+    @Benchmark
+    public void guidStrategyFallback(Blackhole blackhole) {
+        for (SyndEntry entry : entries) {
+            blackhole.consume(RssDocumentId.contentId(entry.getTitle(), entry.getLink(), entry.getDescription() != null ? entry.getDescription().getValue() : null));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss.benchmark;
+
+import com.rometools.rome.feed.synd.SyndEntry;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.elasticsearch.river.rss.RssToJson.toBytes;
+import static org.elasticsearch.river.rss.RssToJson.toJson;
+
+/**
+ * Converting all entries of a feed to the document we send to elasticsearch.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RssToJsonBenchmark {
+
+    @Param({"lemonde", "lefigaro", "reuters", "nytimes", "dcrainmaker", "darkreading", "feedforall",
+            "malwaredomains", "synthetic-1000"})
+    public String feed;
+
+    @Param({"true", "false"})
+    public boolean raw;
+
+    private List<SyndEntry> entries;
+
+    @Setup
+    public void setup() throws Exception {
+        entries = BenchmarkFeeds.entries(BenchmarkFeeds.load(feed));
+    }
+
+    @Benchmark
+    public void toJsonBuilder(Blackhole blackhole) throws Exception {
+        for (SyndEntry entry : entries) {
+            blackhole.consume(toJson(entry, "benchmark", feed, raw).bytes());
+        }
+    }
+
+    @Benchmark
+    public void toJsonBytes(Blackhole blackhole) throws Exception {
+        for (SyndEntry entry : entries) {
+            blackhole.consume(toBytes(entry, "benchmark", feed, raw, XContentType.JSON));
+        }
+    }
+
+    @Benchmark
+    public void toSmileBytes(Blackhole blackhole) throws Exception {
+        for (SyndEntry entry : entries) {
+            blackhole.consume(toBytes(entry, "benchmark", feed, raw, XContentType.SMILE));
+        }
+    }
+}
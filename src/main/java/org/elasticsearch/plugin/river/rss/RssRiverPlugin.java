@@ -19,11 +19,19 @@
 
 package org.elasticsearch.plugin.river.rss;
 
+import org.elasticsearch.common.component.LifecycleComponent;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.inject.Module;
 import org.elasticsearch.plugins.AbstractPlugin;
+import org.elasticsearch.rest.RestModule;
 import org.elasticsearch.river.RiversModule;
+import org.elasticsearch.river.rss.RestRssStatsAction;
+import org.elasticsearch.river.rss.RssDistributedService;
 import org.elasticsearch.river.rss.RssRiverModule;
+import org.elasticsearch.river.rss.RssStatsModule;
+
+import java.util.ArrayList;
+import java.util.Collection;
 
 /**
  * @author kimchy (shay.banon)
@@ -41,9 +49,24 @@ public class RssRiverPlugin extends AbstractPlugin {
         return "River Rss Plugin";
     }
 
+    @Override public Collection<Class<? extends Module>> modules() {
+        Collection<Class<? extends Module>> modules = new ArrayList<Class<? extends Module>>();
+        modules.add(RssStatsModule.class);
+        return modules;
+    }
+
+    @Override public Collection<Class<? extends LifecycleComponent>> services() {
+        Collection<Class<? extends LifecycleComponent>> services = new ArrayList<Class<? extends LifecycleComponent>>();
+        services.add(RssDistributedService.class);
+        return services;
+    }
+
     @Override public void processModule(Module module) {
         if (module instanceof RiversModule) {
             ((RiversModule) module).registerRiver("rss", RssRiverModule.class);
         }
+        if (module instanceof RestModule) {
+            ((RestModule) module).addRestAction(RestRssStatsAction.class);
+        }
     }
 }
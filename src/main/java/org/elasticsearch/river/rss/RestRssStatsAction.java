@@ -0,0 +1,142 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.search.SearchHit;
+
+import java.io.IOException;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestStatus.NOT_FOUND;
+import static org.elasticsearch.rest.RestStatus.OK;
+
+/**
+ * Statistics of rss rivers.
+ * <ul>
+ *     <li>GET /_rss/stats: rivers running on this node</li>
+ *     <li>GET /_rss/{river}/stats: a single river. If it does not run on this node, we send the
+ *     last statistics it wrote in _river. Distributed rivers write statistics for each node, we send
+ *     them in a "nodes" object by node id.</li>
+ * </ul>
+ */
+public class RestRssStatsAction extends BaseRestHandler {
+    public static final String STATS_ID = "_stats";
+    /**
+     * Prefix of the statistics documents written by each node of a distributed river
+     */
+    public static final String NODE_STATS_ID_PREFIX = STATS_ID + "_";
+
+    private final RssStatsRegistry registry;
+
+    @Inject
+    public RestRssStatsAction(Settings settings, RestController controller, Client client, RssStatsRegistry registry) {
+        super(settings, controller, client);
+        this.registry = registry;
+        controller.registerHandler(GET, "/_rss/stats", this);
+        controller.registerHandler(GET, "/_rss/{river}/stats", this);
+    }
+
+    @Override
+    protected void handleRequest(final RestRequest request, final RestChannel channel, Client client) throws Exception {
+        final String river = request.param("river");
+        if (river == null) {
+            XContentBuilder builder = channel.newBuilder();
+            builder.startObject();
+            for (RssRiverStats stats : registry.all()) {
+                builder.startObject(stats.getRiverName());
+                stats.toXContent(builder, request);
+                builder.endObject();
+            }
+            builder.endObject();
+            channel.sendResponse(new BytesRestResponse(OK, builder));
+            return;
+        }
+
+        RssRiverStats stats = registry.get(river);
+        if (stats != null) {
+            XContentBuilder builder = channel.newBuilder();
+            builder.startObject();
+            stats.toXContent(builder, request);
+            builder.endObject();
+            channel.sendResponse(new BytesRestResponse(OK, builder));
+            return;
+        }
+
+        // The river runs on another node or on many nodes
+        client.prepareSearch("_river").setTypes(river)
+                .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), FilterBuilders.existsFilter("river")))
+                .setSize(1000)
+                .execute(new ActionListener<SearchResponse>() {
+            @Override
+            public void onResponse(SearchResponse response) {
+                try {
+                    SearchHit riverStats = null;
+                    XContentBuilder builder = channel.newBuilder();
+                    builder.startObject().field("river", river).startObject("nodes");
+                    int nodes = 0;
+                    for (SearchHit hit : response.getHits()) {
+                        if (STATS_ID.equals(hit.getId())) {
+                            riverStats = hit;
+                        } else if (hit.getId().startsWith(NODE_STATS_ID_PREFIX)) {
+                            builder.field(hit.getId().substring(NODE_STATS_ID_PREFIX.length()), hit.sourceAsMap());
+                            nodes++;
+                        }
+                    }
+                    builder.endObject().endObject();
+                    if (nodes > 0) {
+                        channel.sendResponse(new BytesRestResponse(OK, builder));
+                    } else if (riverStats != null) {
+                        builder = channel.newBuilder();
+                        builder.map(riverStats.sourceAsMap());
+                        channel.sendResponse(new BytesRestResponse(OK, builder));
+                    } else {
+                        builder = channel.newBuilder();
+                        builder.startObject().field("river", river).field("found", false).endObject();
+                        channel.sendResponse(new BytesRestResponse(NOT_FOUND, builder));
+                    }
+                } catch (IOException e) {
+                    onFailure(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                try {
+                    channel.sendResponse(new BytesRestResponse(channel, e));
+                } catch (IOException e1) {
+                    logger.error("Failed to send failure response", e1);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.netty.bootstrap.ClientBootstrap;
+import org.elasticsearch.common.netty.buffer.ChannelBuffer;
+import org.elasticsearch.common.netty.channel.Channel;
+import org.elasticsearch.common.netty.channel.ChannelFuture;
+import org.elasticsearch.common.netty.channel.ChannelFutureListener;
+import org.elasticsearch.common.netty.channel.ChannelHandlerContext;
+import org.elasticsearch.common.netty.channel.ChannelPipeline;
+import org.elasticsearch.common.netty.channel.ChannelPipelineFactory;
+import org.elasticsearch.common.netty.channel.ChannelStateEvent;
+import org.elasticsearch.common.netty.channel.Channels;
+import org.elasticsearch.common.netty.channel.ExceptionEvent;
+import org.elasticsearch.common.netty.channel.MessageEvent;
+import org.elasticsearch.common.netty.channel.SimpleChannelUpstreamHandler;
+import org.elasticsearch.common.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.elasticsearch.common.netty.handler.codec.frame.TooLongFrameException;
+import org.elasticsearch.common.netty.handler.codec.http.DefaultHttpRequest;
+import org.elasticsearch.common.netty.handler.codec.http.HttpChunkAggregator;
+import org.elasticsearch.common.netty.handler.codec.http.HttpClientCodec;
+import org.elasticsearch.common.netty.handler.codec.http.HttpHeaders;
+import org.elasticsearch.common.netty.handler.codec.http.HttpMessage;
+import org.elasticsearch.common.netty.handler.codec.http.HttpMethod;
+import org.elasticsearch.common.netty.handler.codec.http.HttpRequest;
+import org.elasticsearch.common.netty.handler.codec.http.HttpResponse;
+import org.elasticsearch.common.netty.handler.codec.http.HttpVersion;
+import org.elasticsearch.common.netty.handler.ssl.SslHandler;
+import org.elasticsearch.common.netty.handler.timeout.ReadTimeoutHandler;
+import org.elasticsearch.common.netty.util.HashedWheelTimer;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fetches feeds with non blocking IO so a few network threads can wait for thousands of
+ * servers. Responses are fully read in memory (up to the max body size) and handed to the
+ * listener which is called from a network thread: it must not parse the feed itself.
+ * Connections are not reused. Host names are resolved on their own threads so a slow DNS
+ * server never stalls the network threads.
+ */
+public class RssAsyncFetcher {
+    private static final int MAX_REDIRECTS = 5;
+
+    private final ESLogger logger;
+    private final RssFetcher fetcher;
+    private final HashedWheelTimer timer;
+    private final ExecutorService resolver;
+    private final ClientBootstrap bootstrap;
+
+    public RssAsyncFetcher(ESLogger logger, Settings settings, RssFetcher fetcher, int ioThreads) {
+        this.logger = logger;
+        this.fetcher = fetcher;
+        this.timer = new HashedWheelTimer(EsExecutors.daemonThreadFactory(settings, "rss_http_timer"));
+        this.resolver = Executors.newCachedThreadPool(EsExecutors.daemonThreadFactory(settings, "rss_http_resolver"));
+        this.bootstrap = new ClientBootstrap(new NioClientSocketChannelFactory(
+                Executors.newCachedThreadPool(EsExecutors.daemonThreadFactory(settings, "rss_http_boss")),
+                Executors.newCachedThreadPool(EsExecutors.daemonThreadFactory(settings, "rss_http_worker")),
+                Math.max(ioThreads, 1)));
+        bootstrap.setOption("connectTimeoutMillis", fetcher.getConnectTimeout().millis());
+        bootstrap.setOption("tcpNoDelay", true);
+        final long readTimeout = fetcher.getReadTimeout().millis();
+        final int maxBodySize = (int) Math.min(Integer.MAX_VALUE, fetcher.getMaxBodySize().bytes());
+        bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() throws Exception {
+                ChannelPipeline pipeline = Channels.pipeline();
+                pipeline.addLast("timeout", new ReadTimeoutHandler(timer, readTimeout, TimeUnit.MILLISECONDS));
+                pipeline.addLast("codec", new HttpClientCodec());
+                pipeline.addLast("limit", new ContentLengthHandler(maxBodySize));
+                pipeline.addLast("aggregator", new HttpChunkAggregator(maxBodySize));
+                pipeline.addLast("handler", new ResponseHandler());
+                return pipeline;
+            }
+        });
+    }
+
+    /**
+     * @param url feed url
+     * @return true if the feed can be fetched asynchronously
+     */
+    public static boolean supports(String url) {
+        return url != null && (url.startsWith("http://") || url.startsWith("https://"));
+    }
+
+    /**
+     * Send a request to the feed, sending back the validators we got on last poll
+     * @param url feed url
+     * @param etag ETag we got on last poll or null
+     * @param lastModified Last-Modified date we got on last poll or null
+     * @param listener called from a network thread with the response
+     * @return false if too many connections are already opened to the host: nothing has been sent
+     * @throws MalformedURLException if the url is incorrect
+     */
+    public boolean fetch(String url, String etag, String lastModified, ActionListener<RssFetcher.Response> listener)
+            throws MalformedURLException {
+        URL feedUrl = new URL(url);
+        Semaphore permits = fetcher.tryAcquire(feedUrl.getHost());
+        if (permits == null) {
+            return false;
+        }
+        send(new Request(feedUrl, etag, lastModified, listener, permits, 0));
+        return true;
+    }
+
+    /**
+     * Resolve the host of the request, then connect. It may be called from a network thread when
+     * following a redirect, so name resolution is left to the resolver threads.
+     */
+    private void send(final Request request) {
+        try {
+            resolver.execute(new Runnable() {
+                @Override
+                public void run() {
+                    connect(request);
+                }
+            });
+        } catch (Exception e) {
+            // Fetcher is closed
+            request.fail(e);
+        }
+    }
+
+    private void connect(final Request request) {
+        final URL url = request.url;
+        final boolean ssl = "https".equalsIgnoreCase(url.getProtocol());
+        final int port = url.getPort() > 0 ? url.getPort() : (ssl ? 443 : 80);
+        final ChannelFuture connect;
+        try {
+            InetSocketAddress address = new InetSocketAddress(url.getHost(), port);
+            if (address.isUnresolved()) {
+                throw new UnknownHostException(url.getHost());
+            }
+            connect = bootstrap.connect(address);
+        } catch (Exception e) {
+            request.fail(e);
+            return;
+        }
+        request.channel = connect.getChannel();
+        connect.getChannel().setAttachment(request);
+        connect.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (!future.isSuccess()) {
+                    request.fail(future.getCause());
+                    return;
+                }
+                final Channel channel = future.getChannel();
+                if (!ssl) {
+                    channel.write(request.toHttpRequest());
+                    return;
+                }
+                SSLEngine engine = sslEngine(url.getHost(), port);
+                SslHandler sslHandler = new SslHandler(engine);
+                channel.getPipeline().addFirst("ssl", sslHandler);
+                sslHandler.handshake().addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        if (future.isSuccess()) {
+                            channel.write(request.toHttpRequest());
+                        } else {
+                            request.fail(future.getCause());
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * The handshake fails if the certificate was not issued for the host, as with HttpsURLConnection
+     */
+    private static SSLEngine sslEngine(String host, int port) throws NoSuchAlgorithmException {
+        SSLEngine engine = SSLContext.getDefault().createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        engine.setSSLParameters(parameters);
+        return engine;
+    }
+
+    /**
+     * Stop network threads. Pending requests are dropped.
+     */
+    public void close() {
+        resolver.shutdownNow();
+        bootstrap.releaseExternalResources();
+        timer.stop();
+    }
+
+    /**
+     * A request in flight. It follows redirects and completes only once.
+     */
+    private class Request {
+        private final URL url;
+        private final String etag;
+        private final String lastModified;
+        private final ActionListener<RssFetcher.Response> listener;
+        private final Semaphore permits;
+        private final int redirects;
+        private final AtomicBoolean done = new AtomicBoolean(false);
+        private volatile Channel channel;
+
+        private Request(URL url, String etag, String lastModified, ActionListener<RssFetcher.Response> listener,
+                        Semaphore permits, int redirects) {
+            this.url = url;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.listener = listener;
+            this.permits = permits;
+            this.redirects = redirects;
+        }
+
+        private HttpRequest toHttpRequest() {
+            String path = url.getFile();
+            if (path == null || path.length() == 0) {
+                path = "/";
+            }
+            HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, path);
+            request.headers().set(HttpHeaders.Names.HOST, url.getPort() > 0 ? url.getHost() + ":" + url.getPort() : url.getHost());
+            request.headers().set(HttpHeaders.Names.USER_AGENT, RssFetcher.USER_AGENT);
+            request.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.CLOSE);
+            if (fetcher.isCompression()) {
+                request.headers().set(HttpHeaders.Names.ACCEPT_ENCODING, "gzip, deflate");
+            }
+            if (etag != null) {
+                request.headers().set(HttpHeaders.Names.IF_NONE_MATCH, etag);
+            }
+            if (lastModified != null) {
+                request.headers().set(HttpHeaders.Names.IF_MODIFIED_SINCE, lastModified);
+            }
+            return request;
+        }
+
+        private void complete(HttpResponse response) {
+            int status = response.getStatus().getCode();
+            String location = response.headers().get(HttpHeaders.Names.LOCATION);
+            if (isRedirect(status) && location != null && redirects < MAX_REDIRECTS) {
+                if (!done.compareAndSet(false, true)) {
+                    return;
+                }
+                close();
+                URL target;
+                try {
+                    target = new URL(url, location);
+                } catch (MalformedURLException e) {
+                    permits.release();
+                    listener.onFailure(e);
+                    return;
+                }
+                Semaphore targetPermits = permits;
+                if (!url.getHost().equalsIgnoreCase(target.getHost())) {
+                    // Connections are limited per host: we now need a connection to the target host
+                    permits.release();
+                    targetPermits = fetcher.tryAcquire(target.getHost());
+                    if (targetPermits == null) {
+                        listener.onFailure(new IOException("too many connections to [" + target.getHost() + "]"));
+                        return;
+                    }
+                }
+                if (logger.isDebugEnabled()) logger.debug("Following redirect from [{}] to [{}]", url, target);
+                send(new Request(target, etag, lastModified, listener, targetPermits, redirects + 1));
+                return;
+            }
+
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            close();
+            permits.release();
+            Map<String, String> headers = new HashMap<String, String>();
+            for (Map.Entry<String, String> header : response.headers().entries()) {
+                headers.put(header.getKey(), header.getValue());
+            }
+            ChannelBuffer content = response.getContent();
+            byte[] body = new byte[content.readableBytes()];
+            content.readBytes(body);
+            listener.onResponse(new RssFetcher.BufferedResponse(status, headers, body, fetcher.getMaxBodySize().bytes()));
+        }
+
+        private void fail(Throwable t) {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            close();
+            permits.release();
+            listener.onFailure(t);
+        }
+
+        private void close() {
+            Channel channel = this.channel;
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    private static boolean isRedirect(int status) {
+        return status == 301 || status == 302 || status == 303 || status == 307 || status == 308;
+    }
+
+    /**
+     * Stops reading a response as soon as we know it is too big
+     */
+    private static class ContentLengthHandler extends SimpleChannelUpstreamHandler {
+        private final long max;
+
+        private ContentLengthHandler(long max) {
+            this.max = max;
+        }
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+            if (e.getMessage() instanceof HttpMessage) {
+                RssFetcher.checkContentLength(((HttpMessage) e.getMessage()).headers().get(HttpHeaders.Names.CONTENT_LENGTH), max);
+            }
+            super.messageReceived(ctx, e);
+        }
+    }
+
+    private class ResponseHandler extends SimpleChannelUpstreamHandler {
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+            Request request = (Request) ctx.getChannel().getAttachment();
+            if (request != null && e.getMessage() instanceof HttpResponse) {
+                request.complete((HttpResponse) e.getMessage());
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+            Request request = (Request) ctx.getChannel().getAttachment();
+            if (request != null) {
+                Throwable cause = e.getCause();
+                if (cause instanceof TooLongFrameException) {
+                    cause = new RssFetcher.TooLargeException("feed is bigger than " + fetcher.getMaxBodySize());
+                }
+                request.fail(cause);
+            } else {
+                ctx.getChannel().close();
+            }
+        }
+
+        @Override
+        public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+            Request request = (Request) ctx.getChannel().getAttachment();
+            if (request != null) {
+                request.fail(new IOException("connection to [" + request.url.getHost() + "] closed before we got a response"));
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss;
+
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tune the number of documents sent in each bulk so a bulk takes about a target time to execute.
+ * <br>
+ * After each bulk, we estimate how many documents could have been indexed in the target time
+ * and move the bulk size half way to this value, within [min, max] bounds.
+ */
+public class RssBulkSizer {
+    private final int min;
+    private final int max;
+    private final long targetLatency;
+
+    private volatile int actions;
+    private final AtomicInteger added = new AtomicInteger();
+
+    /**
+     * @param initial initial number of documents per bulk
+     * @param min min number of documents per bulk
+     * @param max max number of documents per bulk
+     * @param targetLatency time we want a bulk to take
+     */
+    public RssBulkSizer(int initial, int min, int max, TimeValue targetLatency) {
+        this.min = Math.max(1, min);
+        this.max = Math.max(this.min, max);
+        this.targetLatency = targetLatency.millis();
+        this.actions = clamp(initial);
+    }
+
+    /**
+     * @return current number of documents per bulk
+     */
+    public int getActions() {
+        return actions;
+    }
+
+    /**
+     * A document has been added to the current bulk
+     * @return true if the bulk is full and should be executed
+     */
+    public boolean onAdd() {
+        return added.incrementAndGet() >= actions;
+    }
+
+    /**
+     * A bulk is going to be executed
+     */
+    public void onBulk() {
+        added.set(0);
+    }
+
+    /**
+     * @param numberOfActions number of documents in the bulk
+     * @param tookInMillis time the bulk took
+     */
+    public synchronized void onResponse(int numberOfActions, long tookInMillis) {
+        if (numberOfActions <= 0) {
+            return;
+        }
+        long ideal;
+        if (tookInMillis <= 0) {
+            ideal = (long) actions * 2;
+        } else {
+            ideal = numberOfActions * targetLatency / tookInMillis;
+        }
+        // Small bulks sent on flush interval don't tell us much about what bigger ones would take
+        if (ideal > actions && numberOfActions < actions / 2) {
+            return;
+        }
+        actions = clamp((actions + ideal) / 2);
+    }
+
+    /**
+     * A bulk failed. We send smaller ones.
+     */
+    public synchronized void onFailure() {
+        actions = clamp(actions / 2);
+    }
+
+    private int clamp(long value) {
+        return (int) Math.min(max, Math.max(min, value));
+    }
+}
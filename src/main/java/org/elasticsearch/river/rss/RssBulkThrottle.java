@@ -0,0 +1,82 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss;
+
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.index.IndexRequest;
+
+/**
+ * Keep track of documents sent to the bulk processor which have not been indexed yet.
+ * When there are too many of them, feeds should not be polled until elasticsearch catches up.
+ */
+public class RssBulkThrottle {
+    private final long maxActions;
+    private final long maxBytes;
+
+    private long actions = 0;
+    private long bytes = 0;
+
+    /**
+     * @param maxActions max number of pending documents (0 means no limit)
+     * @param maxBytes max size of pending documents (0 means no limit)
+     */
+    public RssBulkThrottle(long maxActions, long maxBytes) {
+        this.maxActions = maxActions;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * A request has been sent to the bulk processor
+     */
+    public synchronized void add(ActionRequest request) {
+        actions++;
+        bytes += size(request);
+    }
+
+    /**
+     * A request has been executed (or definitely failed)
+     */
+    public synchronized void done(ActionRequest request) {
+        actions = Math.max(0, actions - 1);
+        bytes = Math.max(0, bytes - size(request));
+    }
+
+    /**
+     * @return true if we should wait before sending more requests
+     */
+    public synchronized boolean isOverloaded() {
+        return (maxActions > 0 && actions >= maxActions) || (maxBytes > 0 && bytes >= maxBytes);
+    }
+
+    public synchronized long getPendingActions() {
+        return actions;
+    }
+
+    public synchronized long getPendingBytes() {
+        return bytes;
+    }
+
+    private static long size(ActionRequest request) {
+        if (request instanceof IndexRequest && ((IndexRequest) request).source() != null) {
+            return ((IndexRequest) request).source().length();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects feed checkpoints (the _river state documents) and writes them in batches.
+ * A checkpoint is only written once all the content index requests sent for the same
+ * poll have been successfully executed. If one of them fails, the checkpoint is dropped
+ * so the feed will be processed again from its previous checkpoint.
+ * As the feed state of a poll includes what previous polls found, checkpoints of a feed are
+ * written in the order they were started, even those without any content: a checkpoint waits
+ * for the previous ones. When one is dropped, the next ones are dropped too until the feed
+ * state has been read again from _river (see {@link #reset(String)}).
+ * Checkpoints are partial updates, so fields written by others (like feed failures) are kept.
+ */
+public class RssCheckpointCoordinator {
+    private final ESLogger logger;
+    private final Client client;
+    private final String riverName;
+
+    // Content requests we are waiting for
+    private final Map<ActionRequest, Checkpoint> pending = new IdentityHashMap<ActionRequest, Checkpoint>();
+    // Checkpoints ready to be written, only the most recent one per feed is kept
+    private final Map<String, Checkpoint> ready = new LinkedHashMap<String, Checkpoint>();
+    // Sequence number of the last checkpoint started per feed
+    private final Map<String, Long> sequences = new HashMap<String, Long>();
+    // Sequence number of the last checkpoint written per feed
+    private final Map<String, Long> written = new HashMap<String, Long>();
+    // Checkpoints per feed which are not ready nor dropped yet, oldest first
+    private final Map<String, LinkedList<Checkpoint>> open = new HashMap<String, LinkedList<Checkpoint>>();
+    // Feeds whose in memory state includes content which failed
+    private final Set<String> failedFeeds = new HashSet<String>();
+
+    public RssCheckpointCoordinator(ESLogger logger, Client client, String riverName) {
+        this.logger = logger;
+        this.client = client;
+        this.riverName = riverName;
+    }
+
+    /**
+     * Start a new checkpoint for a feed poll
+     * @param id _river document id of the feed state
+     * @param onFailure called when content of this checkpoint could not be indexed
+     * @return the checkpoint
+     */
+    public synchronized Checkpoint newCheckpoint(String id, Runnable onFailure) {
+        Long sequence = sequences.get(id);
+        sequence = sequence == null ? 0 : sequence + 1;
+        sequences.put(id, sequence);
+        Checkpoint checkpoint = new Checkpoint(id, sequence, onFailure);
+        checkpoint.dropped = failedFeeds.contains(id);
+        LinkedList<Checkpoint> checkpoints = open.get(id);
+        if (checkpoints == null) {
+            checkpoints = new LinkedList<Checkpoint>();
+            open.put(id, checkpoints);
+        }
+        checkpoints.add(checkpoint);
+        return checkpoint;
+    }
+
+    /**
+     * Must be called when the state of a feed has been read again from _river, so
+     * next checkpoints of this feed can be written again after a failure
+     * @param id _river document id of the feed state
+     */
+    public synchronized void reset(String id) {
+        failedFeeds.remove(id);
+    }
+
+    /**
+     * Must be called when a content request has been executed
+     * @param request the request
+     * @param failed true if the request failed
+     */
+    public void done(ActionRequest request, boolean failed) {
+        Checkpoint checkpoint;
+        synchronized (this) {
+            checkpoint = pending.remove(request);
+            if (checkpoint == null) {
+                return;
+            }
+            checkpoint.pendingRequests--;
+            if (failed) {
+                checkpoint.failed = true;
+            }
+            if (!checkpoint.isComplete()) {
+                return;
+            }
+        }
+        complete(checkpoint);
+    }
+
+    /**
+     * @return number of checkpoints waiting to be written
+     */
+    public synchronized int readyCount() {
+        return ready.size();
+    }
+
+    /**
+     * @return number of content requests we are waiting for
+     */
+    public synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return true if this checkpoint will be written on next flush
+     */
+    public synchronized boolean isReady(Checkpoint checkpoint) {
+        return ready.get(checkpoint.id) == checkpoint;
+    }
+
+    /**
+     * @return true if a more recent checkpoint of the same feed is ready or written
+     */
+    private boolean isOutdated(Checkpoint checkpoint) {
+        Checkpoint last = ready.get(checkpoint.id);
+        if (last != null && last.sequence > checkpoint.sequence) {
+            return true;
+        }
+        Long sequence = written.get(checkpoint.id);
+        return sequence != null && sequence > checkpoint.sequence;
+    }
+
+    /**
+     * Resolve the checkpoints of a feed which are complete, oldest first
+     */
+    private void complete(Checkpoint checkpoint) {
+        List<Checkpoint> failures = new ArrayList<Checkpoint>();
+        synchronized (this) {
+            checkpoint.complete = true;
+            LinkedList<Checkpoint> checkpoints = open.get(checkpoint.id);
+            while (checkpoints != null && !checkpoints.isEmpty() && checkpoints.getFirst().complete) {
+                Checkpoint first = checkpoints.removeFirst();
+                if (first.failed) {
+                    failures.add(first);
+                    failedFeeds.add(first.id);
+                    // Next checkpoints have been built from a state which includes the failed content
+                    for (Checkpoint next : checkpoints) {
+                        next.dropped = true;
+                    }
+                } else if (first.dropped) {
+                    if (logger.isDebugEnabled()) logger.debug("Dropping checkpoint [{}] as a previous one failed", first.id);
+                } else if (isOutdated(first)) {
+                    if (logger.isDebugEnabled()) logger.debug("Dropping checkpoint [{}] as a more recent one exists", first.id);
+                } else {
+                    ready.put(first.id, first);
+                }
+            }
+            if (checkpoints != null && checkpoints.isEmpty()) {
+                open.remove(checkpoint.id);
+            }
+        }
+        for (Checkpoint failure : failures) {
+            if (logger.isDebugEnabled()) logger.debug("Dropping checkpoint [{}] as some content failed", failure.id);
+            if (failure.onFailure != null) {
+                failure.onFailure.run();
+            }
+        }
+    }
+
+    /**
+     * Write all ready checkpoints in a single bulk request
+     */
+    public void flush() {
+        final List<Checkpoint> checkpoints;
+        synchronized (this) {
+            if (ready.isEmpty()) {
+                return;
+            }
+            checkpoints = new ArrayList<Checkpoint>(ready.values());
+            ready.clear();
+            for (Checkpoint checkpoint : checkpoints) {
+                written.put(checkpoint.id, checkpoint.sequence);
+            }
+        }
+
+        if (logger.isDebugEnabled()) logger.debug("Writing {} feed checkpoints", checkpoints.size());
+        BulkRequestBuilder bulk = client.prepareBulk();
+        for (Checkpoint checkpoint : checkpoints) {
+            bulk.add(new UpdateRequest("_river", riverName, checkpoint.id).doc(checkpoint.source).docAsUpsert(true));
+        }
+        bulk.execute(new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse response) {
+                BulkItemResponse[] items = response.getItems();
+                for (int i = 0; i < items.length; i++) {
+                    if (items[i].isFailed()) {
+                        logger.warn("failed to write checkpoint [{}]: {}", items[i].getId(), items[i].getFailureMessage());
+                        retry(checkpoints.get(i));
+                    }
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                logger.warn("failed to write feed checkpoints", e);
+                for (Checkpoint checkpoint : checkpoints) {
+                    retry(checkpoint);
+                }
+            }
+        });
+    }
+
+    /**
+     * Write again a checkpoint on next flush unless a more recent one is ready or written
+     */
+    private synchronized void retry(Checkpoint checkpoint) {
+        if (!ready.containsKey(checkpoint.id) && !isOutdated(checkpoint)) {
+            ready.put(checkpoint.id, checkpoint);
+        }
+    }
+
+    /**
+     * Checkpoint of a single feed poll
+     */
+    public class Checkpoint {
+        private final String id;
+        private final long sequence;
+        private final Runnable onFailure;
+        private int pendingRequests = 0;
+        private boolean failed = false;
+        // A previous checkpoint of the same feed failed
+        private boolean dropped = false;
+        private boolean discarded = false;
+        private boolean complete = false;
+        private XContentBuilder source;
+
+        private Checkpoint(String id, long sequence, Runnable onFailure) {
+            this.id = id;
+            this.sequence = sequence;
+            this.onFailure = onFailure;
+        }
+
+        /**
+         * Wait for this content request before writing the checkpoint.
+         * Must be called before the request is sent.
+         */
+        public void track(ActionRequest request) {
+            synchronized (RssCheckpointCoordinator.this) {
+                pending.put(request, this);
+                pendingRequests++;
+            }
+        }
+
+        /**
+         * No more content will be added for this poll
+         * @param source _river document to write when content has been indexed
+         */
+        public void seal(XContentBuilder source) {
+            synchronized (RssCheckpointCoordinator.this) {
+                this.source = source;
+                if (!isComplete()) {
+                    return;
+                }
+            }
+            complete(this);
+        }
+
+        /**
+         * The poll could not send all its content: the checkpoint fails once
+         * the content already sent has been executed
+         */
+        public void discard() {
+            synchronized (RssCheckpointCoordinator.this) {
+                failed = true;
+                discarded = true;
+                if (!isComplete()) {
+                    return;
+                }
+            }
+            complete(this);
+        }
+
+        private boolean isComplete() {
+            return (source != null || discarded) && pendingRequests == 0;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss;
+
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.Date;
+
+/**
+ * Stops polling feeds which keep failing. After a few failures in a row, the circuit of a
+ * feed opens: the feed is not polled again before a backoff delay which doubles after
+ * each new failure. Once the delay is over, the circuit is half open and a single poll is
+ * tried: the circuit closes if it succeeds and opens again otherwise.
+ * Failures are kept in the feed state so they survive a river restart.
+ */
+public class RssCircuitBreaker {
+    public static enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int threshold;
+    private final TimeValue backoff;
+    private final TimeValue maxBackoff;
+
+    /**
+     * @param threshold number of failures in a row before the circuit opens
+     * @param backoff delay before we try again once the circuit opened
+     * @param maxBackoff max delay between two tries
+     */
+    public RssCircuitBreaker(int threshold, TimeValue backoff, TimeValue maxBackoff) {
+        this.threshold = Math.max(threshold, 1);
+        this.backoff = backoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    public State state(RssFeedState feed, long now) {
+        if (feed.getFailures() < threshold || feed.getRetryAt() == null) {
+            return State.CLOSED;
+        }
+        return now < feed.getRetryAt().getTime() ? State.OPEN : State.HALF_OPEN;
+    }
+
+    /**
+     * @return delay in ms before the feed can be polled or 0 if it can be polled now
+     */
+    public long delay(RssFeedState feed, long now) {
+        if (state(feed, now) != State.OPEN) {
+            return 0;
+        }
+        return feed.getRetryAt().getTime() - now;
+    }
+
+    /**
+     * A poll failed
+     * @param feed feed state
+     * @param error error message
+     * @param now current time in ms
+     * @return true if the circuit is now open
+     */
+    public boolean onFailure(RssFeedState feed, String error, long now) {
+        feed.setFailures(feed.getFailures() + 1);
+        feed.setLastError(error);
+        feed.setLastFailure(new Date(now));
+        if (feed.getFailures() < threshold) {
+            return false;
+        }
+        feed.setRetryAt(new Date(now + backoff(feed.getFailures())));
+        return true;
+    }
+
+    /**
+     * A poll succeeded
+     * @param feed feed state
+     * @return true if the feed was failing
+     */
+    public boolean onSuccess(RssFeedState feed) {
+        if (feed.getFailures() == 0) {
+            return false;
+        }
+        feed.setFailures(0);
+        feed.setRetryAt(null);
+        return true;
+    }
+
+    /**
+     * @param failures number of failures in a row, at least threshold
+     * @return backoff delay in ms
+     */
+    private long backoff(int failures) {
+        int exponent = Math.min(failures - threshold, 30);
+        long delay = backoff.millis() << exponent;
+        if (delay <= 0 || delay > maxBackoff.millis()) {
+            return maxBackoff.millis();
+        }
+        return delay;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss;
+
+import com.rometools.rome.feed.synd.SyndEntry;
+import org.elasticsearch.common.hash.MurmurHash3;
+
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Hashes used to detect feeds which did not change since last poll when the server
+ * does not support (or ignores) ETag and Last-Modified validators.
+ */
+public class RssContentHash {
+
+    /**
+     * Murmur3 128 bits hash of the raw feed body
+     * @param body body bytes
+     * @param length number of bytes to hash
+     * @return hash
+     */
+    public static String body(byte[] body, int length) {
+        MurmurHash3.Hash128 hash = MurmurHash3.hash128(body, 0, length, 0, new MurmurHash3.Hash128());
+        return new UUID(hash.h1, hash.h2).toString();
+    }
+
+    /**
+     * Hash of the ordered entries guids (or links) and dates. Feeds regenerating their build date
+     * on each request give the same hash as long as their entries don't change.
+     * @param entries feed entries
+     * @return hash
+     */
+    public static String entries(List<SyndEntry> entries) {
+        String[] parts = new String[entries.size() * 2];
+        int i = 0;
+        for (SyndEntry entry : entries) {
+            String guid = entry.getUri() != null ? entry.getUri() : entry.getLink();
+            if (guid == null) {
+                guid = entry.getTitle();
+            }
+            Date date = entry.getUpdatedDate() != null ? entry.getUpdatedDate() : entry.getPublishedDate();
+            parts[i++] = guid;
+            parts[i++] = date != null ? String.valueOf(date.getTime()) : null;
+        }
+        return RssDocumentId.hash(parts);
+    }
+}
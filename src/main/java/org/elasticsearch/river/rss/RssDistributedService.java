@@ -0,0 +1,274 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterChangedEvent;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.ClusterStateListener;
+import org.elasticsearch.cluster.block.ClusterBlockLevel;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.river.RiverName;
+import org.elasticsearch.river.RiverSettings;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs on every node the feeds of distributed rss rivers (<code>rss.distributed</code>) this node owns.
+ * Feeds are spread over data nodes with consistent hashing on their url. When nodes join or
+ * leave the cluster, only feeds which moved from or to this node are started or stopped.
+ * Feed states are read from and written to _river, so a feed polled by another node starts
+ * again from its last checkpoint.
+ */
+public class RssDistributedService extends AbstractLifecycleComponent<RssDistributedService> implements ClusterStateListener {
+
+    private final ClusterService clusterService;
+    private final ThreadPool threadPool;
+    private final Client client;
+    private final RssStatsRegistry statsRegistry;
+    private final Environment environment;
+    private final TimeValue refreshInterval;
+
+    /**
+     * Scroll keep alive when reading rivers definitions
+     */
+    private static final TimeValue RIVERS_SCROLL = TimeValue.timeValueMinutes(1);
+
+    // Distributed rivers by name
+    private final Map<String, Worker> workers = new HashMap<String, Worker>();
+    private volatile RssFeedRing ring;
+
+    @Inject
+    public RssDistributedService(Settings settings, ClusterService clusterService, ThreadPool threadPool, Client client,
+                                 RssStatsRegistry statsRegistry, Environment environment) {
+        super(settings);
+        this.clusterService = clusterService;
+        this.threadPool = threadPool;
+        this.client = client;
+        this.statsRegistry = statsRegistry;
+        this.environment = environment;
+        this.refreshInterval = settings.getAsTime("rss.distributed.refresh_interval", TimeValue.timeValueSeconds(30));
+    }
+
+    @Override
+    protected void doStart() throws ElasticsearchException {
+        clusterService.add(this);
+        scheduleRefresh();
+    }
+
+    @Override
+    protected void doStop() throws ElasticsearchException {
+        clusterService.remove(this);
+        closeWorkers();
+    }
+
+    private synchronized void closeWorkers() {
+        for (Worker worker : workers.values()) {
+            worker.close();
+        }
+        workers.clear();
+    }
+
+    @Override
+    protected void doClose() throws ElasticsearchException {
+    }
+
+    @Override
+    public void clusterChanged(ClusterChangedEvent event) {
+        if (!event.nodesChanged() || !lifecycle.started()) {
+            return;
+        }
+        final RssFeedRing newRing = RssFeedRing.fromNodes(event.state().nodes());
+        RssFeedRing current = ring;
+        if (current != null && current.getNodeIds().equals(newRing.getNodeIds())) {
+            return;
+        }
+        // We don't block the cluster state thread while rivers are restarted
+        threadPool.generic().execute(new Runnable() {
+            @Override
+            public void run() {
+                rebalance(newRing);
+            }
+        });
+    }
+
+    private void scheduleRefresh() {
+        threadPool.schedule(refreshInterval, ThreadPool.Names.GENERIC, new Runnable() {
+            @Override
+            public void run() {
+                if (!lifecycle.started()) {
+                    return;
+                }
+                try {
+                    refresh();
+                } catch (Exception e) {
+                    logger.warn("failed to read distributed rss rivers", e);
+                } finally {
+                    if (lifecycle.started()) {
+                        scheduleRefresh();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Read rivers definitions from _river, then start new distributed rivers, stop removed ones
+     * and restart modified ones
+     */
+    @SuppressWarnings("unchecked")
+    synchronized void refresh() {
+        ClusterState state = clusterService.state();
+        // Only data nodes are in the ring and poll feeds
+        if (!clusterService.localNode().dataNode()) {
+            closeWorkers();
+            return;
+        }
+        if (state.blocks().hasGlobalBlock(ClusterBlockLevel.READ) || !state.metaData().hasIndex("_river")) {
+            return;
+        }
+        if (ring == null) {
+            ring = RssFeedRing.fromNodes(state.nodes());
+        }
+
+        // All rivers are read: we would stop the ones we miss
+        Map<String, SearchHit> rivers = new HashMap<String, SearchHit>();
+        SearchResponse response = client.prepareSearch("_river")
+                .setSearchType(SearchType.SCAN)
+                .setScroll(RIVERS_SCROLL)
+                .setQuery(QueryBuilders.idsQuery().addIds("_meta"))
+                .setVersion(true)
+                .setSize(500)
+                .execute().actionGet();
+        try {
+            while (true) {
+                response = client.prepareSearchScroll(response.getScrollId()).setScroll(RIVERS_SCROLL).execute().actionGet();
+                if (response.getHits().getHits().length == 0) {
+                    break;
+                }
+                for (SearchHit hit : response.getHits()) {
+                    Map<String, Object> source = hit.sourceAsMap();
+                    if (source != null && "rss".equals(source.get("type")) &&
+                            XContentMapValues.nodeBooleanValue(XContentMapValues.extractValue("rss.distributed", source), false)) {
+                        rivers.put(hit.getType(), hit);
+                    }
+                }
+            }
+        } finally {
+            clearScroll(response.getScrollId());
+        }
+
+        for (String name : new ArrayList<String>(workers.keySet())) {
+            Worker worker = workers.get(name);
+            SearchHit hit = rivers.get(name);
+            if (hit == null || hit.getVersion() != worker.version) {
+                if (logger.isInfoEnabled()) logger.info("Stopping feeds of river [{}]", name);
+                worker.close();
+                workers.remove(name);
+            }
+        }
+        for (SearchHit hit : rivers.values()) {
+            if (!workers.containsKey(hit.getType())) {
+                Worker worker = new Worker(hit.getType(), hit.getVersion(), hit.sourceAsMap());
+                workers.put(hit.getType(), worker);
+                worker.start(ring);
+            }
+        }
+    }
+
+    private void clearScroll(String scrollId) {
+        if (scrollId == null) {
+            return;
+        }
+        try {
+            client.prepareClearScroll().addScrollId(scrollId).execute().actionGet();
+        } catch (Exception e) {
+            // It will expire anyway
+            logger.debug("failed to clear scroll [{}]", e, scrollId);
+        }
+    }
+
+    /**
+     * Start and stop feeds which moved from or to this node
+     */
+    synchronized void rebalance(RssFeedRing newRing) {
+        if (logger.isDebugEnabled()) logger.debug("Polling nodes are now {}", newRing.getNodeIds());
+        ring = newRing;
+        for (Worker worker : workers.values()) {
+            worker.assign(newRing);
+        }
+    }
+
+    /**
+     * Feeds of a distributed river polled by this node
+     */
+    private class Worker {
+        private final String name;
+        private final long version;
+        private final Map<String, Object> source;
+        private RssRiver river;
+
+        private Worker(String name, long version, Map<String, Object> source) {
+            this.name = name;
+            this.version = version;
+            this.source = source;
+        }
+
+        private void start(RssFeedRing ring) {
+            try {
+                if (logger.isInfoEnabled()) logger.info("Polling feeds of river [{}]", name);
+                RssRiver river = new RssRiver(new RiverName("rss", name), new RiverSettings(settings, source),
+                        client, statsRegistry, environment, ring);
+                // Even without any local feed, the river runs so it gets feeds when nodes leave or feeds are added
+                river.start();
+                this.river = river;
+            } catch (Exception e) {
+                logger.warn("failed to start feeds of river [{}]", e, name);
+            }
+        }
+
+        private void assign(RssFeedRing ring) {
+            if (river != null) {
+                river.assign(ring);
+            }
+        }
+
+        private void close() {
+            if (river != null) {
+                river.close();
+                river = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss;
+
+import com.rometools.rome.feed.synd.SyndEntry;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.hash.MurmurHash3;
+
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Generate elasticsearch document ids for feed entries.
+ */
+public class RssDocumentId {
+
+    public enum Strategy {
+        /**
+         * MD5 over the description, as older versions of the river did
+         */
+        LEGACY,
+        /**
+         * Hash of the guid (or link) if any, hash of title, link and description otherwise
+         */
+        GUID;
+
+        public static Strategy fromString(String strategy) {
+            try {
+                return valueOf(strategy.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new ElasticsearchIllegalArgumentException("Unknown id strategy [" + strategy + "]");
+            }
+        }
+    }
+
+    /**
+     * Buffers reused by each thread to encode text. Bigger buffers are not kept.
+     */
+    private static final int MAX_REUSED_BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[1024];
+        }
+    };
+
+    /**
+     * @param strategy id strategy
+     * @param entry feed entry
+     * @return document id
+     */
+    public static String id(Strategy strategy, SyndEntry entry) {
+        if (strategy == Strategy.GUID) {
+            return guidId(entry);
+        }
+        return legacyId(entry);
+    }
+
+    /**
+     * Id used by older versions of the river: MD5 over the description bytes using
+     * the platform charset. Entries without description all get the same id.
+     */
+    public static String legacyId(SyndEntry entry) {
+        String description = "";
+        if (entry.getDescription() != null) {
+            description = entry.getDescription().getValue();
+        }
+        return UUID.nameUUIDFromBytes(description.getBytes()).toString();
+    }
+
+    /**
+     * Murmur3 128 bits hash of the entry guid (or link). If we don't have any, we hash
+     * title, link and description so entries without description don't collide.
+     */
+    public static String guidId(SyndEntry entry) {
+        String guid = entry.getUri();
+        if (isEmpty(guid)) {
+            guid = entry.getLink();
+        }
+        if (!isEmpty(guid)) {
+            return hash(guid);
+        }
+        return contentId(entry.getTitle(), entry.getLink(), entry.getDescription() != null ? entry.getDescription().getValue() : null);
+    }
+
+    /**
+     * Murmur3 128 bits hash of title, link and description
+     */
+    public static String contentId(String title, String link, String description) {
+        return hash(title, link, description);
+    }
+
+    /**
+     * Hash UTF-8 bytes of some trimmed texts separated by a 0 byte, using a buffer reused by the current thread.
+     */
+    static String hash(String... parts) {
+        byte[] buffer = BUFFERS.get();
+        int length = 0;
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                buffer = grow(buffer, length + 1);
+                buffer[length++] = 0;
+            }
+            String part = parts[i] != null ? parts[i].trim() : "";
+            // A char is never more than 3 bytes in UTF-8 (surrogate pairs take 4 bytes for 2 chars)
+            buffer = grow(buffer, length + part.length() * 3);
+            length = encodeUTF8(part, buffer, length);
+        }
+
+        MurmurHash3.Hash128 hash = MurmurHash3.hash128(buffer, 0, length, 0, new MurmurHash3.Hash128());
+        if (buffer.length > MAX_REUSED_BUFFER_SIZE) {
+            BUFFERS.remove();
+        } else {
+            BUFFERS.set(buffer);
+        }
+        return new UUID(hash.h1, hash.h2).toString();
+    }
+
+    private static byte[] grow(byte[] buffer, int size) {
+        if (buffer.length >= size) {
+            return buffer;
+        }
+        byte[] bigger = new byte[Math.max(size, buffer.length * 2)];
+        System.arraycopy(buffer, 0, bigger, 0, buffer.length);
+        return bigger;
+    }
+
+    /**
+     * Encode a string in UTF-8 without creating an intermediate byte array
+     * @return new offset in the buffer
+     */
+    private static int encodeUTF8(String s, byte[] out, int offset) {
+        int upto = offset;
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            int c = s.charAt(i);
+            if (c < 0x80) {
+                out[upto++] = (byte) c;
+            } else if (c < 0x800) {
+                out[upto++] = (byte) (0xC0 | (c >> 6));
+                out[upto++] = (byte) (0x80 | (c & 0x3F));
+            } else if (c < 0xD800 || c > 0xDFFF) {
+                out[upto++] = (byte) (0xE0 | (c >> 12));
+                out[upto++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[upto++] = (byte) (0x80 | (c & 0x3F));
+            } else if (c < 0xDC00 && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint((char) c, s.charAt(++i));
+                out[upto++] = (byte) (0xF0 | (codePoint >> 18));
+                out[upto++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                out[upto++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                out[upto++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                // Unpaired surrogate: replacement char
+                out[upto++] = (byte) 0xEF;
+                out[upto++] = (byte) 0xBF;
+                out[upto++] = (byte) 0xBD;
+            }
+        }
+        return upto;
+    }
+
+    private static boolean isEmpty(String s) {
+        return s == null || s.trim().length() == 0;
+    }
+}
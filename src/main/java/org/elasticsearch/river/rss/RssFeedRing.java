@@ -0,0 +1,116 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss;
+
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.common.Charsets;
+import org.elasticsearch.common.hash.MurmurHash3;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Consistent hashing of feed urls over the nodes polling feeds. Each node is placed many times
+ * on the ring so feeds are evenly spread, and a node joining or leaving the cluster only moves
+ * the feeds it gets or had.
+ */
+public class RssFeedRing {
+    /**
+     * Number of points of each node on the ring
+     */
+    static final int VIRTUAL_NODES = 128;
+
+    private final TreeMap<Long, String> ring = new TreeMap<Long, String>();
+    private final Set<String> nodeIds;
+    private final String localNodeId;
+
+    /**
+     * @param nodeIds nodes polling feeds
+     * @param localNodeId id of this node
+     */
+    public RssFeedRing(Collection<String> nodeIds, String localNodeId) {
+        this.nodeIds = new TreeSet<String>(nodeIds);
+        this.localNodeId = localNodeId;
+        // Nodes are added in the same order everywhere so all nodes resolve collisions the same way
+        for (String nodeId : this.nodeIds) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                long point = hash(nodeId + "#" + i);
+                if (!ring.containsKey(point)) {
+                    ring.put(point, nodeId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the ring of the data nodes of the cluster
+     */
+    public static RssFeedRing fromNodes(DiscoveryNodes nodes) {
+        List<String> nodeIds = new ArrayList<String>();
+        for (DiscoveryNode node : nodes) {
+            if (node.dataNode()) {
+                nodeIds.add(node.id());
+            }
+        }
+        return new RssFeedRing(nodeIds, nodes.localNodeId());
+    }
+
+    /**
+     * @param url feed url
+     * @return id of the node which polls the feed or null if there is no node
+     */
+    public String owner(String url) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(url));
+        if (entry == null) {
+            entry = ring.firstEntry();
+        }
+        return entry.getValue();
+    }
+
+    /**
+     * @param url feed url
+     * @return true if this node polls the feed
+     */
+    public boolean isLocal(String url) {
+        return localNodeId != null && localNodeId.equals(owner(url));
+    }
+
+    public Set<String> getNodeIds() {
+        return nodeIds;
+    }
+
+    public String getLocalNodeId() {
+        return localNodeId;
+    }
+
+    private static long hash(String value) {
+        byte[] bytes = value != null ? value.getBytes(Charsets.UTF_8) : new byte[0];
+        return MurmurHash3.hash128(bytes, 0, bytes.length, 0, new MurmurHash3.Hash128()).h1;
+    }
+}
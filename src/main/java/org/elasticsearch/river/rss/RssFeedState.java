@@ -0,0 +1,252 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss;
+
+import org.elasticsearch.common.joda.time.format.ISODateTimeFormat;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+/**
+ * State of a feed we store in _river between two polls: last update date,
+ * HTTP validators (ETag / Last-Modified) sent back to the server, most recent
+ * item date, guids of the items we found in the feed on last poll, hashes of
+ * the content we read and the failures we got since last successful poll.
+ */
+public class RssFeedState {
+    public static final String ETAG = "etag";
+    public static final String LAST_MODIFIED = "last_modified";
+    public static final String LAST_ITEM_DATE = "last_item_date";
+    public static final String GUIDS = "guids";
+    public static final String BODY_HASH = "body_hash";
+    public static final String ENTRIES_HASH = "entries_hash";
+    public static final String FAILURES = "failures";
+    public static final String LAST_ERROR = "last_error";
+    public static final String LAST_FAILURE = "last_failure";
+    public static final String RETRY_AT = "retry_at";
+
+    private Date lastUpdated;
+    private String etag;
+    private String lastModified;
+    private Date lastItemDate;
+    private Set<String> guids = new LinkedHashSet<String>();
+    private String bodyHash;
+    private String entriesHash;
+    private int failures = 0;
+    private String lastError;
+    private Date lastFailure;
+    private Date retryAt;
+
+    public Date getLastUpdated() {
+        return lastUpdated;
+    }
+
+    public void setLastUpdated(Date lastUpdated) {
+        this.lastUpdated = lastUpdated;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(String lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public Date getLastItemDate() {
+        return lastItemDate;
+    }
+
+    public void setLastItemDate(Date lastItemDate) {
+        this.lastItemDate = lastItemDate;
+    }
+
+    public Set<String> getGuids() {
+        return guids;
+    }
+
+    public void setGuids(Set<String> guids) {
+        this.guids = guids;
+    }
+
+    /**
+     * @return hash of the feed body we read on last poll, or null
+     */
+    public String getBodyHash() {
+        return bodyHash;
+    }
+
+    public void setBodyHash(String bodyHash) {
+        this.bodyHash = bodyHash;
+    }
+
+    /**
+     * @return hash of the entries we found in the feed on last poll, or null
+     */
+    public String getEntriesHash() {
+        return entriesHash;
+    }
+
+    public void setEntriesHash(String entriesHash) {
+        this.entriesHash = entriesHash;
+    }
+
+    /**
+     * @return number of failed polls since last successful one
+     */
+    public int getFailures() {
+        return failures;
+    }
+
+    public void setFailures(int failures) {
+        this.failures = failures;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public Date getLastFailure() {
+        return lastFailure;
+    }
+
+    public void setLastFailure(Date lastFailure) {
+        this.lastFailure = lastFailure;
+    }
+
+    /**
+     * @return date before which the feed must not be polled because it keeps failing, or null
+     */
+    public Date getRetryAt() {
+        return retryAt;
+    }
+
+    public void setRetryAt(Date retryAt) {
+        this.retryAt = retryAt;
+    }
+
+    /**
+     * @param guid item guid
+     * @return true if the item was in the feed on last poll
+     */
+    public boolean hasGuid(String guid) {
+        return guids.contains(guid);
+    }
+
+    /**
+     * Read the state from the "rss" object of the _river document
+     * @param rssState "rss" object content
+     * @param lastupdateField field name used to store the last update date
+     * @return the feed state
+     */
+    @SuppressWarnings("unchecked")
+    public static RssFeedState fromMap(Map<String, Object> rssState, String lastupdateField) {
+        RssFeedState state = new RssFeedState();
+        if (rssState != null) {
+            Object lastupdate = rssState.get(lastupdateField);
+            if (lastupdate != null) {
+                state.lastUpdated = ISODateTimeFormat.dateOptionalTimeParser().parseDateTime(lastupdate.toString()).toDate();
+            }
+            state.etag = XContentMapValues.nodeStringValue(rssState.get(ETAG), null);
+            state.lastModified = XContentMapValues.nodeStringValue(rssState.get(LAST_MODIFIED), null);
+            Object lastItemDate = rssState.get(LAST_ITEM_DATE);
+            if (lastItemDate != null) {
+                state.lastItemDate = ISODateTimeFormat.dateOptionalTimeParser().parseDateTime(lastItemDate.toString()).toDate();
+            }
+            if (XContentMapValues.isArray(rssState.get(GUIDS))) {
+                for (Object guid : (List<Object>) rssState.get(GUIDS)) {
+                    state.guids.add(guid.toString());
+                }
+            }
+            state.bodyHash = XContentMapValues.nodeStringValue(rssState.get(BODY_HASH), null);
+            state.entriesHash = XContentMapValues.nodeStringValue(rssState.get(ENTRIES_HASH), null);
+            state.failures = XContentMapValues.nodeIntegerValue(rssState.get(FAILURES), 0);
+            state.lastError = XContentMapValues.nodeStringValue(rssState.get(LAST_ERROR), null);
+            Object lastFailure = rssState.get(LAST_FAILURE);
+            if (lastFailure != null) {
+                state.lastFailure = ISODateTimeFormat.dateOptionalTimeParser().parseDateTime(lastFailure.toString()).toDate();
+            }
+            Object retryAt = rssState.get(RETRY_AT);
+            if (retryAt != null) {
+                state.retryAt = ISODateTimeFormat.dateOptionalTimeParser().parseDateTime(retryAt.toString()).toDate();
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Build a partial _river document with what we read from the feed. Failures are not part of it
+     * as they are written on their own when they change (see {@link #failuresToXContent()}).
+     * @param lastupdateField field name used to store the last update date
+     * @return the partial _river document
+     */
+    public XContentBuilder toXContent(String lastupdateField) throws IOException {
+        XContentBuilder xcb = jsonBuilder().startObject().startObject("rss")
+                .field(lastupdateField, lastUpdated)
+                .field(ETAG, etag)
+                .field(LAST_MODIFIED, lastModified)
+                .field(LAST_ITEM_DATE, lastItemDate);
+        xcb.startArray(GUIDS);
+        for (String guid : guids) {
+            xcb.value(guid);
+        }
+        xcb.endArray();
+        xcb.field(BODY_HASH, bodyHash)
+                .field(ENTRIES_HASH, entriesHash);
+        return xcb.endObject().endObject();
+    }
+
+    /**
+     * Build a partial _river document with only the failures of the feed
+     * @return the partial _river document
+     */
+    public XContentBuilder failuresToXContent() throws IOException {
+        XContentBuilder xcb = jsonBuilder().startObject().startObject("rss");
+        failuresToXContent(xcb);
+        return xcb.endObject().endObject();
+    }
+
+    private void failuresToXContent(XContentBuilder xcb) throws IOException {
+        xcb.field(FAILURES, failures)
+                .field(LAST_ERROR, lastError)
+                .field(LAST_FAILURE, lastFailure)
+                .field(RETRY_AT, retryAt);
+    }
+}
@@ -0,0 +1,581 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss;
+
+import org.elasticsearch.common.Charsets;
+import org.elasticsearch.common.logging.ESLogger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Append only store of the feeds we fetched, so they can be indexed again without
+ * fetching them. Bodies are compressed and appended to segment files which are memory
+ * mapped when read. A new segment is started when the current one is full or when the
+ * store is opened, and oldest segments are removed when the store gets too big.
+ * Feeds read while they are parsed are compressed to a spool file, then appended.
+ */
+public class RssFeedStore implements Closeable {
+    private static final int MAGIC = 0x52535331;
+    private static final String SUFFIX = ".seg";
+    private static final String SPOOL_SUFFIX = ".spool";
+
+    private final ESLogger logger;
+    private final File dir;
+    private final long segmentSize;
+    private final long maxSize;
+
+    private RandomAccessFile current;
+    private long currentSize;
+    private int lastSegment;
+    private boolean closed = false;
+
+    /**
+     * Open a store
+     * @param logger logger
+     * @param dir directory of the segment files
+     * @param segmentSize size of a segment before we start a new one
+     * @param maxSize max size of all segments. 0 means no limit.
+     */
+    public RssFeedStore(ESLogger logger, File dir, long segmentSize, long maxSize) throws IOException {
+        this.logger = logger;
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("can not create feed store directory [" + dir + "]");
+        }
+        File[] segments = segments();
+        lastSegment = segments.length == 0 ? 0 : number(segments[segments.length - 1]);
+        // Spool files left by a node which stopped while reading a feed
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(SPOOL_SUFFIX) && !file.delete()) {
+                    logger.warn("can not remove feed store spool file [{}]", file);
+                }
+            }
+        }
+    }
+
+    /**
+     * A fetched feed
+     */
+    public static class Record {
+        private final String url;
+        private final long time;
+        private final String contentType;
+        private final byte[] body;
+
+        public Record(String url, long time, String contentType, byte[] body) {
+            this.url = url;
+            this.time = time;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return time the feed was fetched in ms
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return Content-Type sent by the server or null
+         */
+        public String getContentType() {
+            return contentType;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+    }
+
+    /**
+     * Receives records while reading the store
+     */
+    public interface Visitor {
+        /**
+         * @return false to stop reading the store
+         */
+        boolean visit(Record record) throws IOException;
+    }
+
+    /**
+     * Append a fetched feed to the store
+     * @param url feed url
+     * @param time time the feed was fetched in ms
+     * @param contentType Content-Type sent by the server or null
+     * @param body feed body
+     * @param length length of the body
+     */
+    public synchronized void append(String url, long time, String contentType, byte[] body, int length) throws IOException {
+        if (closed) {
+            throw new IOException("feed store is closed");
+        }
+        byte[] compressed = compress(body, length);
+        CRC32 crc = new CRC32();
+        crc.update(compressed);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(compressed.length + 256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(time);
+        writeString(out, url);
+        writeString(out, contentType);
+        out.writeInt(length);
+        out.writeInt(compressed.length);
+        out.write(compressed);
+        out.writeLong(crc.getValue());
+        out.close();
+
+        if (current == null || currentSize >= segmentSize) {
+            roll();
+        }
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(MAGIC).putInt(bytes.size()).flip();
+        FileChannel channel = current.getChannel();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        currentSize += 8 + bytes.size();
+    }
+
+    /**
+     * Start compressing a body we get while reading it. The body is never kept in memory.
+     * The spool must be closed once appended or if the body is not stored.
+     */
+    public Spool spool() throws IOException {
+        return new Spool(File.createTempFile("feed", SPOOL_SUFFIX, dir));
+    }
+
+    /**
+     * Append a fetched feed we compressed to a spool file
+     * @param url feed url
+     * @param time time the feed was fetched in ms
+     * @param contentType Content-Type sent by the server or null
+     * @param spool body of the feed
+     */
+    public synchronized void append(String url, long time, String contentType, Spool spool) throws IOException {
+        if (closed) {
+            throw new IOException("feed store is closed");
+        }
+        spool.finish();
+        if (spool.length > Integer.MAX_VALUE || spool.file.length() > Integer.MAX_VALUE) {
+            throw new IOException("feed is too large to be stored");
+        }
+        int compressedLength = (int) spool.file.length();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(time);
+        writeString(out, url);
+        writeString(out, contentType);
+        out.writeInt((int) spool.length);
+        out.writeInt(compressedLength);
+        out.close();
+
+        if (current == null || currentSize >= segmentSize) {
+            roll();
+        }
+        FileChannel channel = current.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(MAGIC).putInt(bytes.size() + compressedLength + 8).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        RandomAccessFile compressed = new RandomAccessFile(spool.file, "r");
+        try {
+            FileChannel source = compressed.getChannel();
+            long position = 0;
+            while (position < compressedLength) {
+                position += source.transferTo(position, compressedLength - position, channel);
+            }
+        } finally {
+            compressed.close();
+        }
+        ByteBuffer crc = ByteBuffer.allocate(8);
+        crc.putLong(spool.crc.getValue()).flip();
+        while (crc.hasRemaining()) {
+            channel.write(crc);
+        }
+        currentSize += 8 + bytes.size() + compressedLength + 8;
+    }
+
+    /**
+     * Body of a feed compressed to a file while it is read
+     */
+    public static class Spool extends OutputStream {
+        private final File file;
+        private final CRC32 crc = new CRC32();
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final DeflaterOutputStream out;
+        private long length = 0;
+        private boolean finished = false;
+
+        private Spool(File file) throws IOException {
+            this.file = file;
+            this.out = new DeflaterOutputStream(new CheckedOutputStream(new FileOutputStream(file), crc), deflater, 8192);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            length++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            length += len;
+        }
+
+        /**
+         * @return size of the body before compression
+         */
+        public long getLength() {
+            return length;
+        }
+
+        private void finish() throws IOException {
+            if (!finished) {
+                finished = true;
+                out.close();
+            }
+        }
+
+        /**
+         * Remove the spool file
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                finish();
+            } finally {
+                deflater.end();
+                if (!file.delete() && file.exists()) {
+                    throw new IOException("can not remove feed store spool file [" + file + "]");
+                }
+            }
+        }
+    }
+
+    /**
+     * Read all records, oldest first. Truncated records (if the node crashed while writing them) are ignored.
+     */
+    public void read(Visitor visitor) throws IOException {
+        synchronized (this) {
+            if (current != null) {
+                current.getChannel().force(false);
+            }
+        }
+        for (File segment : segments()) {
+            if (!read(segment, visitor)) {
+                return;
+            }
+        }
+    }
+
+    private boolean read(File segment, Visitor visitor) throws IOException {
+        MappedByteBuffer buffer;
+        RandomAccessFile file = new RandomAccessFile(segment, "r");
+        try {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            // The mapping stays valid once the file is closed
+            file.close();
+        }
+
+        while (buffer.remaining() >= 8) {
+            int position = buffer.position();
+            Record record;
+            try {
+                if (buffer.getInt() != MAGIC) {
+                    throw new IOException("bad record header");
+                }
+                int size = buffer.getInt();
+                if (size < 0 || size > buffer.remaining()) {
+                    throw new IOException("truncated record");
+                }
+                ByteBuffer content = buffer.slice();
+                content.limit(size);
+                buffer.position(buffer.position() + size);
+                record = readRecord(content);
+            } catch (IOException e) {
+                logger.warn("ignoring end of feed store segment [{}] from position [{}]: {}", segment, position, e.getMessage());
+                return true;
+            } catch (BufferUnderflowException e) {
+                logger.warn("ignoring end of feed store segment [{}] from position [{}]: truncated record", segment, position);
+                return true;
+            }
+            if (!visitor.visit(record)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Record readRecord(ByteBuffer buffer) throws IOException {
+        long time = buffer.getLong();
+        String url = readString(buffer);
+        String contentType = readString(buffer);
+        int length = buffer.getInt();
+        int compressedLength = buffer.getInt();
+        if (length < 0 || compressedLength < 0 || compressedLength > buffer.remaining()) {
+            throw new IOException("bad record length");
+        }
+        byte[] compressed = new byte[compressedLength];
+        buffer.get(compressed);
+        CRC32 crc = new CRC32();
+        crc.update(compressed);
+        if (buffer.getLong() != crc.getValue()) {
+            throw new IOException("bad record checksum");
+        }
+        return new Record(url, time, contentType, decompress(compressed, length));
+    }
+
+    /**
+     * @return size of all segments in bytes
+     */
+    public long size() {
+        long size = 0;
+        for (File segment : segments()) {
+            size += segment.length();
+        }
+        return size;
+    }
+
+    /**
+     * Start a new segment and remove oldest ones if the store is too big
+     */
+    private void roll() throws IOException {
+        closeCurrent();
+        lastSegment++;
+        File segment = new File(dir, String.format(Locale.ROOT, "%08d", lastSegment) + SUFFIX);
+        current = new RandomAccessFile(segment, "rw");
+        current.seek(current.length());
+        currentSize = current.length();
+        if (logger.isDebugEnabled()) logger.debug("Writing fetched feeds in [{}]", segment);
+
+        if (maxSize > 0) {
+            File[] segments = segments();
+            long size = 0;
+            for (File file : segments) {
+                size += file.length();
+            }
+            for (int i = 0; i < segments.length - 1 && size > maxSize; i++) {
+                size -= segments[i].length();
+                if (logger.isDebugEnabled()) logger.debug("Removing feed store segment [{}]", segments[i]);
+                if (!segments[i].delete()) {
+                    logger.warn("can not remove feed store segment [{}]", segments[i]);
+                }
+            }
+        }
+    }
+
+    private File[] segments() {
+        File[] segments = dir.listFiles();
+        if (segments == null) {
+            return new File[0];
+        }
+        List<File> files = new ArrayList<File>(segments.length);
+        for (File segment : segments) {
+            if (segment.isFile() && segment.getName().endsWith(SUFFIX) && number(segment) > 0) {
+                files.add(segment);
+            }
+        }
+        File[] sorted = files.toArray(new File[files.size()]);
+        // Segment names have a fixed length so they sort by number
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static int number(File segment) {
+        String name = segment.getName();
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void closeCurrent() throws IOException {
+        if (current != null) {
+            current.getChannel().force(false);
+            current.close();
+            current = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        closeCurrent();
+    }
+
+    private static byte[] compress(byte[] body, int length) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(body, 0, length);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(length / 4, 64));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] decompress(byte[] compressed, int length) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] body = new byte[length];
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                int n = inflater.inflate(body, read, length - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != length) {
+                throw new IOException("bad record body");
+            }
+            return body;
+        } catch (DataFormatException e) {
+            throw new IOException("bad record body", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(Charsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new IOException("bad record length");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    /**
+     * Copy what is read from a stream to another one
+     * @param in stream to read
+     * @param copy receives a copy of what is read
+     * @return the stream to read
+     */
+    public static InputStream tee(InputStream in, OutputStream copy) {
+        return new TeeInputStream(in, copy);
+    }
+
+    private static class TeeInputStream extends FilterInputStream {
+        private final OutputStream copy;
+
+        TeeInputStream(InputStream in, OutputStream copy) {
+            super(in);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                copy.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                copy.write(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes must be copied too
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            int read = read(buffer, 0, buffer.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,570 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss;
+
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Fetches feeds over HTTP with timeouts, compression, a maximum body size and a
+ * limited number of concurrent connections per host. Connections are reused by the
+ * JVM keep-alive cache as long as responses are fully read and closed.
+ * The fetcher itself does not buffer bodies: encoding detection (headers, BOM, XML prolog)
+ * is done by the {@link com.rometools.rome.io.XmlReader} reading the body, which only looks
+ * at its first bytes. The whole body (up to the max size) is however read in memory when the
+ * river is not in streaming mode, to hash it and detect unchanged feeds, and by
+ * {@link RssAsyncFetcher} which hands over a {@link BufferedResponse}. A body bigger than the
+ * max size is not read at all when the server sends its length, and is aborted as soon as the
+ * limit is reached otherwise.
+ */
+public class RssFetcher {
+    public static final String USER_AGENT = "RSS River for Elasticsearch (https://github.com/dadoonet/rssriver)";
+    // Error bodies bigger than this are not read: the connection is not reused
+    private static final int MAX_DRAINED_ERROR_BODY = 64 * 1024;
+
+    private final TimeValue connectTimeout;
+    private final TimeValue readTimeout;
+    private final int maxConnectionsPerHost;
+    private final ByteSizeValue maxBodySize;
+    private final boolean compression;
+    private final boolean keepAlive;
+
+    private final ConcurrentMap<String, Semaphore> hosts = ConcurrentCollections.newConcurrentMap();
+
+    public RssFetcher(TimeValue connectTimeout, TimeValue readTimeout, int maxConnectionsPerHost,
+                      ByteSizeValue maxBodySize, boolean compression, boolean keepAlive) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.maxBodySize = maxBodySize;
+        this.compression = compression;
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Build a fetcher from the "http" object of the river settings
+     * @param httpSettings "http" object content, may be null
+     * @return the fetcher
+     */
+    public static RssFetcher fromSettings(Map<String, Object> httpSettings) {
+        if (httpSettings == null) {
+            return new RssFetcher(TimeValue.timeValueSeconds(10), TimeValue.timeValueSeconds(30), 4,
+                    new ByteSizeValue(10, ByteSizeUnit.MB), true, true);
+        }
+        return new RssFetcher(
+                TimeValue.parseTimeValue(XContentMapValues.nodeStringValue(
+                        httpSettings.get("connect_timeout"), null), TimeValue.timeValueSeconds(10)),
+                TimeValue.parseTimeValue(XContentMapValues.nodeStringValue(
+                        httpSettings.get("read_timeout"), null), TimeValue.timeValueSeconds(30)),
+                XContentMapValues.nodeIntegerValue(httpSettings.get("max_connections_per_host"), 4),
+                ByteSizeValue.parseBytesSizeValue(XContentMapValues.nodeStringValue(
+                        httpSettings.get("max_body_size"), null), new ByteSizeValue(10, ByteSizeUnit.MB)),
+                XContentMapValues.nodeBooleanValue(httpSettings.get("compression"), true),
+                XContentMapValues.nodeBooleanValue(httpSettings.get("keep_alive"), true));
+    }
+
+    public TimeValue getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public TimeValue getReadTimeout() {
+        return readTimeout;
+    }
+
+    public ByteSizeValue getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * Get a connection permit for a host without waiting
+     * @param host host name
+     * @return the permits to release once done, an empty semaphore if connections are
+     * not limited or null if too many connections are already opened to this host
+     */
+    public Semaphore tryAcquire(String host) {
+        if (maxConnectionsPerHost <= 0 || host == null || host.length() == 0) {
+            return new Semaphore(0);
+        }
+        Semaphore permits = permits(host.toLowerCase(Locale.ROOT));
+        return permits.tryAcquire() ? permits : null;
+    }
+
+    /**
+     * Send a request to the feed, sending back the validators we got on last poll.
+     * The returned response must be closed.
+     * @param url feed url
+     * @param etag ETag we got on last poll or null
+     * @param lastModified Last-Modified date we got on last poll or null
+     * @return the response, headers have already been read
+     * @throws IOException if the feed can not be reached
+     */
+    public Response fetch(String url, String etag, String lastModified) throws IOException {
+        URL feedUrl = new URL(url);
+        Semaphore permits = null;
+        if (maxConnectionsPerHost > 0 && feedUrl.getHost() != null && feedUrl.getHost().length() > 0) {
+            permits = permits(feedUrl.getHost().toLowerCase(Locale.ROOT));
+            try {
+                if (!permits.tryAcquire(readTimeout.millis(), TimeUnit.MILLISECONDS)) {
+                    throw new IOException("too many connections to [" + feedUrl.getHost() + "]");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for a connection to [" + feedUrl.getHost() + "]");
+            }
+        }
+
+        try {
+            URLConnection connection = feedUrl.openConnection();
+            connection.setConnectTimeout((int) connectTimeout.millis());
+            connection.setReadTimeout((int) readTimeout.millis());
+            connection.addRequestProperty("User-Agent", USER_AGENT);
+            if (compression) {
+                connection.addRequestProperty("Accept-Encoding", "gzip, deflate");
+            }
+            if (!keepAlive) {
+                connection.addRequestProperty("Connection", "close");
+            }
+            if (etag != null) {
+                connection.addRequestProperty("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                connection.addRequestProperty("If-Modified-Since", lastModified);
+            }
+            int status = -1;
+            if (connection instanceof HttpURLConnection) {
+                status = ((HttpURLConnection) connection).getResponseCode();
+            } else {
+                connection.connect();
+            }
+            return new ConnectionResponse(connection, status, permits);
+        } catch (IOException e) {
+            if (permits != null) {
+                permits.release();
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            if (permits != null) {
+                permits.release();
+            }
+            throw e;
+        }
+    }
+
+    private Semaphore permits(String host) {
+        Semaphore permits = hosts.get(host);
+        if (permits == null) {
+            permits = new Semaphore(maxConnectionsPerHost);
+            Semaphore existing = hosts.putIfAbsent(host, permits);
+            if (existing != null) {
+                permits = existing;
+            }
+        }
+        return permits;
+    }
+
+    /**
+     * Thrown when a feed is bigger than the max body size
+     */
+    public static class TooLargeException extends IOException {
+        public TooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * @param e an exception we got while reading a feed
+     * @return true if it was caused by a feed bigger than the max body size
+     */
+    public static boolean isTooLarge(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof TooLargeException) {
+                return true;
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fail early if the server tells us the body is too big
+     * @param contentLength Content-Length header or null
+     * @param max max body size. 0 means no limit.
+     */
+    public static void checkContentLength(String contentLength, long max) throws TooLargeException {
+        if (contentLength == null || max <= 0) {
+            return;
+        }
+        try {
+            long length = Long.parseLong(contentLength.trim());
+            if (length > max) {
+                throw new TooLargeException("feed is " + new ByteSizeValue(length) + ", more than " + new ByteSizeValue(max));
+            }
+        } catch (NumberFormatException e) {
+            // We will count bytes while reading
+        }
+    }
+
+    /**
+     * Decode a response body
+     * @param in raw body
+     * @param contentEncoding Content-Encoding header or null
+     * @return decoded body
+     */
+    public static InputStream decode(InputStream in, String contentEncoding) throws IOException {
+        if (contentEncoding == null) {
+            return in;
+        }
+        String encoding = contentEncoding.trim().toLowerCase(Locale.ROOT);
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+            return new GZIPInputStream(in);
+        }
+        if (encoding.equals("deflate")) {
+            // Should be zlib wrapped but some servers send raw deflate data
+            PushbackInputStream pushback = new PushbackInputStream(in, 2);
+            int b0 = pushback.read();
+            int b1 = pushback.read();
+            if (b1 >= 0) {
+                pushback.unread(b1);
+            }
+            if (b0 >= 0) {
+                pushback.unread(b0);
+            }
+            boolean zlib = b0 >= 0 && b1 >= 0 && (b0 & 0x0F) == 8 && ((b0 << 8) | b1) % 31 == 0;
+            return new InflaterInputStream(pushback, new Inflater(!zlib));
+        }
+        return in;
+    }
+
+    /**
+     * Response of a feed server. It must be closed once read.
+     */
+    public static abstract class Response implements Closeable {
+        /**
+         * @return HTTP status code or -1 if the feed is not read over HTTP
+         */
+        public abstract int getStatus();
+
+        public boolean isNotModified() {
+            return getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        public abstract String getHeader(String name);
+
+        public String getContentType() {
+            return getHeader("Content-Type");
+        }
+
+        /**
+         * @return true if the content type comes from the server
+         */
+        public boolean isHttp() {
+            return getStatus() >= 0;
+        }
+
+        /**
+         * Open the decoded body of the response
+         * @param bytes counts bytes read from the network
+         * @return the body
+         * @throws IOException if the body can not be read or if it is bigger than the max body size
+         */
+        public abstract InputStream getBody(CounterMetric bytes) throws IOException;
+
+        @Override
+        public abstract void close();
+    }
+
+    /**
+     * Response we read from a connection while parsing it
+     */
+    private class ConnectionResponse extends Response {
+        private final URLConnection connection;
+        private final int status;
+        private Semaphore permits;
+        private BoundedInputStream body;
+        private boolean aborted = false;
+
+        private ConnectionResponse(URLConnection connection, int status, Semaphore permits) {
+            this.connection = connection;
+            this.status = status;
+            this.permits = permits;
+        }
+
+        @Override
+        public int getStatus() {
+            return status;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return connection.getHeaderField(name);
+        }
+
+        @Override
+        public String getContentType() {
+            return connection.getContentType();
+        }
+
+        @Override
+        public InputStream getBody(CounterMetric bytes) throws IOException {
+            if (body == null) {
+                // With compression, the length is the compressed one: the decoded body is even bigger
+                try {
+                    checkContentLength(connection.getHeaderField("Content-Length"), maxBodySize.bytes());
+                } catch (TooLargeException e) {
+                    aborted = true;
+                    throw e;
+                }
+                InputStream in = new CountingInputStream(connection.getInputStream(), bytes);
+                body = new BoundedInputStream(decode(in, connection.getContentEncoding()), maxBodySize.bytes());
+            }
+            return body;
+        }
+
+        /**
+         * Close the body and release the connection
+         */
+        @Override
+        public void close() {
+            // We don't let the JVM read the end of an oversized body to reuse the connection
+            boolean abort = aborted || (body != null && body.isExceeded());
+            if (abort && connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).disconnect();
+            }
+            try {
+                if (body != null) {
+                    body.close();
+                } else if (abort) {
+                    // Nothing to read
+                } else if (connection instanceof HttpURLConnection && status >= 400) {
+                    // Reading the error body allows the connection to be reused
+                    InputStream error = ((HttpURLConnection) connection).getErrorStream();
+                    if (error != null) {
+                        try {
+                            drain(error, MAX_DRAINED_ERROR_BODY);
+                        } finally {
+                            error.close();
+                        }
+                    }
+                } else {
+                    connection.getInputStream().close();
+                }
+            } catch (IOException e) {
+                // We don't care
+            } finally {
+                if (!keepAlive && connection instanceof HttpURLConnection) {
+                    ((HttpURLConnection) connection).disconnect();
+                }
+                if (permits != null) {
+                    permits.release();
+                    permits = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Read and drop up to max bytes of a stream
+     */
+    private static void drain(InputStream in, int max) throws IOException {
+        byte[] buffer = new byte[Math.min(max, 8192)];
+        int read = 0;
+        while (read < max) {
+            int n = in.read(buffer, 0, Math.min(buffer.length, max - read));
+            if (n < 0) {
+                return;
+            }
+            read += n;
+        }
+    }
+
+    /**
+     * Response which has already been fully read in memory
+     */
+    public static class BufferedResponse extends Response {
+        private final int status;
+        private final Map<String, String> headers;
+        private final byte[] body;
+        private final long maxBodySize;
+
+        /**
+         * @param status HTTP status code
+         * @param headers response headers, names are case insensitive
+         * @param body raw body, still encoded
+         * @param maxBodySize max decoded body size
+         */
+        public BufferedResponse(int status, Map<String, String> headers, byte[] body, long maxBodySize) {
+            this.status = status;
+            this.headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+            this.headers.putAll(headers);
+            this.body = body;
+            this.maxBodySize = maxBodySize;
+        }
+
+        @Override
+        public int getStatus() {
+            return status;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        @Override
+        public InputStream getBody(CounterMetric bytes) throws IOException {
+            if (status >= 400) {
+                throw new IOException("Server returned HTTP response code: " + status);
+            }
+            checkContentLength(String.valueOf(body.length), maxBodySize);
+            bytes.inc(body.length);
+            return new BoundedInputStream(decode(new ByteArrayInputStream(body), getHeader("Content-Encoding")), maxBodySize);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Count bytes read from a stream
+     */
+    static class CountingInputStream extends FilterInputStream {
+        private final CounterMetric bytes;
+
+        CountingInputStream(InputStream in, CounterMetric bytes) {
+            super(in);
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                bytes.inc();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                bytes.inc(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            bytes.inc(skipped);
+            return skipped;
+        }
+    }
+
+    /**
+     * Fails when more than a given number of bytes is read
+     */
+    public static class BoundedInputStream extends FilterInputStream {
+        private final long max;
+        private long read = 0;
+        private boolean exceeded = false;
+
+        public BoundedInputStream(InputStream in, long max) {
+            super(in);
+            this.max = max;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * @return true if we stopped reading because the stream was too big
+         */
+        public boolean isExceeded() {
+            return exceeded;
+        }
+
+        private void count(long n) throws TooLargeException {
+            read += n;
+            if (max > 0 && read > max) {
+                exceeded = true;
+                throw new TooLargeException("feed is bigger than " + new ByteSizeValue(max));
+            }
+        }
+    }
+}
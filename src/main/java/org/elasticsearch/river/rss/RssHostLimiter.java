@@ -0,0 +1,169 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Limits the number of requests we send to the same host with a token bucket per host.
+ * When a host tells us it gets too many requests (HTTP 429 or 503), we stop sending
+ * requests to it for a while.
+ */
+public class RssHostLimiter {
+    private final double requestsPerSecond;
+    private final int burst;
+    private final TimeValue backoff;
+
+    private final ConcurrentMap<String, Bucket> buckets = ConcurrentCollections.newConcurrentMap();
+
+    /**
+     * @param requestsPerSecond max number of requests per second to the same host. 0 means no limit.
+     * @param burst number of requests we can send at once to a host which has been idle
+     * @param backoff how long we stop sending requests to a host which told us to slow down
+     *                without saying for how long
+     */
+    public RssHostLimiter(double requestsPerSecond, int burst, TimeValue backoff) {
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = Math.max(burst, 1);
+        this.backoff = backoff;
+    }
+
+    /**
+     * Build a limiter from the "http" object of the river settings. Requests are not limited unless
+     * max_requests_per_second_per_host is set: we only back off from hosts which ask us to.
+     * @param httpSettings "http" object content, may be null
+     * @return the limiter
+     */
+    public static RssHostLimiter fromSettings(Map<String, Object> httpSettings) {
+        if (httpSettings == null) {
+            return new RssHostLimiter(0, 5, TimeValue.timeValueMinutes(1));
+        }
+        return new RssHostLimiter(
+                XContentMapValues.nodeDoubleValue(httpSettings.get("max_requests_per_second_per_host"), 0),
+                XContentMapValues.nodeIntegerValue(httpSettings.get("host_burst"), 5),
+                TimeValue.parseTimeValue(XContentMapValues.nodeStringValue(
+                        httpSettings.get("host_backoff"), null), TimeValue.timeValueMinutes(1)));
+    }
+
+    /**
+     * @param url feed url
+     * @return the host of the feed in lower case or null if there is none
+     */
+    public static String host(String url) {
+        try {
+            String host = new URL(url).getHost();
+            return host == null || host.length() == 0 ? null : host.toLowerCase(Locale.ROOT);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Take a token to send a request to a host
+     * @param host feed host, may be null
+     * @param now current time in ms
+     * @return 0 if we can send the request now or the delay in ms before we can try again
+     */
+    public long tryAcquire(String host, long now) {
+        if (host == null) {
+            return 0;
+        }
+        return bucket(host).tryAcquire(now);
+    }
+
+    /**
+     * Give back a token we took for a request which has not been sent
+     * @param host feed host, may be null
+     */
+    public void release(String host) {
+        if (host == null) {
+            return;
+        }
+        bucket(host).release();
+    }
+
+    /**
+     * The host answered it gets too many requests
+     * @param host feed host, may be null
+     * @param retryAfter time in ms the host told us to come back or 0 if unknown
+     * @param now current time in ms
+     */
+    public void onThrottled(String host, long retryAfter, long now) {
+        if (host == null) {
+            return;
+        }
+        bucket(host).pause(retryAfter > now ? retryAfter : now + backoff.millis());
+    }
+
+    private Bucket bucket(String host) {
+        Bucket bucket = buckets.get(host);
+        if (bucket == null) {
+            bucket = new Bucket();
+            Bucket existing = buckets.putIfAbsent(host, bucket);
+            if (existing != null) {
+                bucket = existing;
+            }
+        }
+        return bucket;
+    }
+
+    private class Bucket {
+        private double tokens = burst;
+        private long last = -1;
+        private long pausedUntil = 0;
+
+        synchronized long tryAcquire(long now) {
+            if (now < pausedUntil) {
+                return pausedUntil - now;
+            }
+            if (requestsPerSecond <= 0) {
+                return 0;
+            }
+            if (last >= 0 && now > last) {
+                tokens = Math.min(burst, tokens + (now - last) * requestsPerSecond / 1000);
+            }
+            last = Math.max(last, now);
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - tokens) * 1000 / requestsPerSecond));
+        }
+
+        synchronized void release() {
+            tokens = Math.min(burst, tokens + 1);
+        }
+
+        synchronized void pause(long until) {
+            pausedUntil = Math.max(pausedUntil, until);
+            // Tokens are given back from the end of the pause
+            tokens = 0;
+            last = Math.max(last, pausedUntil);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss;
+
+import com.rometools.rome.io.impl.DateParser;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compute when a feed must be polled again.
+ * <br>
+ * In adaptive mode, the interval is divided by 2 each time a poll brings new items and multiplied by 2
+ * when nothing new has been found, within [min, max] bounds. Feed ttl and HTTP Cache-Control max-age
+ * are then used as a minimum interval and we don't poll during skipHours and skipDays.
+ * <br>
+ * Whatever the mode, a Retry-After header sent by the server is always honored.
+ */
+public class RssPollingRate {
+    private static final TimeZone GMT = TimeZone.getTimeZone("GMT");
+    private static final String[] DAYS = new String[] {
+            "sunday", "monday", "tuesday", "wednesday", "thursday", "friday", "saturday"
+    };
+
+    private final boolean adaptive;
+    private final long min;
+    private final long max;
+
+    private long interval;
+    private long ttl = 0;
+    private long maxAge = 0;
+    private long retryAfter = 0;
+    private final Set<Integer> skipHours = new HashSet<Integer>();
+    private final Set<Integer> skipDays = new HashSet<Integer>();
+
+    /**
+     * @param updateRate initial update rate
+     * @param adaptive true if we want to adapt the rate to the feed activity
+     * @param min minimum update rate in adaptive mode
+     * @param max maximum update rate in adaptive mode
+     */
+    public RssPollingRate(TimeValue updateRate, boolean adaptive, TimeValue min, TimeValue max) {
+        this.adaptive = adaptive;
+        this.min = min.millis();
+        this.max = Math.max(min.millis(), max.millis());
+        this.interval = adaptive ? clamp(updateRate.millis()) : updateRate.millis();
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * @return current interval between two polls, without any server hint
+     */
+    public synchronized TimeValue getInterval() {
+        return TimeValue.timeValueMillis(interval);
+    }
+
+    /**
+     * Force the interval. Used when not adaptive to follow the feed ttl.
+     */
+    public synchronized void setInterval(TimeValue interval) {
+        this.interval = interval.millis();
+    }
+
+    /**
+     * Adapt the interval after a successful poll
+     * @param newItems number of new items found in the feed (0 if not modified)
+     */
+    public synchronized void onPoll(int newItems) {
+        if (!adaptive) {
+            return;
+        }
+        interval = clamp(newItems > 0 ? interval / 2 : interval * 2);
+    }
+
+    /**
+     * @param minutes feed ttl in minutes, -1 if not provided
+     */
+    public synchronized void setTtl(int minutes) {
+        this.ttl = minutes > 0 ? TimeUnit.MINUTES.toMillis(minutes) : 0;
+    }
+
+    /**
+     * @param cacheControl Cache-Control HTTP header value, may be null
+     */
+    public synchronized void setCacheControl(String cacheControl) {
+        maxAge = 0;
+        if (cacheControl == null) {
+            return;
+        }
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim().toLowerCase(Locale.ROOT);
+            if (directive.startsWith("max-age=")) {
+                try {
+                    maxAge = TimeUnit.SECONDS.toMillis(Long.parseLong(directive.substring("max-age=".length()).replace("\"", "")));
+                } catch (NumberFormatException e) {
+                    maxAge = 0;
+                }
+            } else if (directive.equals("no-cache") || directive.equals("no-store")) {
+                maxAge = 0;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param value Retry-After HTTP header value (delay in seconds or HTTP date), may be null
+     * @param now current time in ms
+     */
+    public synchronized void setRetryAfter(String value, long now) {
+        retryAfter = parseRetryAfter(value, now);
+    }
+
+    /**
+     * @param value Retry-After HTTP header value (delay in seconds or HTTP date), may be null
+     * @param now current time in ms
+     * @return time in ms before which we should not come back or 0
+     */
+    public static long parseRetryAfter(String value, long now) {
+        if (value == null || value.trim().length() == 0) {
+            return 0;
+        }
+        try {
+            return now + TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            Date date = DateParser.parseRFC822(value.trim(), Locale.US);
+            return date != null ? date.getTime() : 0;
+        }
+    }
+
+    /**
+     * @param hours hours (GMT) the feed should not be read
+     * @param days days the feed should not be read
+     */
+    public synchronized void setSkip(Collection<Integer> hours, Collection<String> days) {
+        skipHours.clear();
+        skipDays.clear();
+        if (hours != null) {
+            for (Integer hour : hours) {
+                if (hour != null) {
+                    // RSS 2.0 spec uses 0-23 but some feeds use 24 for midnight
+                    skipHours.add(hour % 24);
+                }
+            }
+        }
+        if (days != null) {
+            for (String day : days) {
+                for (int i = 0; i < DAYS.length; i++) {
+                    if (day != null && DAYS[i].equals(day.trim().toLowerCase(Locale.ROOT))) {
+                        skipDays.add(Calendar.SUNDAY + i);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param now current time in ms
+     * @return delay before next poll in ms, before skip hours and days are applied
+     */
+    public synchronized long nextDelay(long now) {
+        long delay = interval;
+        if (adaptive) {
+            delay = Math.max(delay, Math.max(ttl, maxAge));
+        }
+        if (retryAfter > now) {
+            delay = Math.max(delay, retryAfter - now);
+        }
+        return delay;
+    }
+
+    /**
+     * Move a delay out of skip hours and days in adaptive mode
+     * @param now current time in ms
+     * @param delay delay before next poll in ms
+     * @return delay in ms
+     */
+    public synchronized long skip(long now, long delay) {
+        if (!adaptive || (skipHours.isEmpty() && skipDays.isEmpty())) {
+            return delay;
+        }
+        Calendar calendar = Calendar.getInstance(GMT, Locale.ROOT);
+        calendar.setTimeInMillis(now + delay);
+        // A week at most
+        for (int i = 0; i < 24 * 7; i++) {
+            if (!skipHours.contains(calendar.get(Calendar.HOUR_OF_DAY)) && !skipDays.contains(calendar.get(Calendar.DAY_OF_WEEK))) {
+                break;
+            }
+            calendar.add(Calendar.HOUR_OF_DAY, 1);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+        }
+        return Math.max(delay, calendar.getTimeInMillis() - now);
+    }
+
+    private long clamp(long value) {
+        return Math.min(max, Math.max(min, value));
+    }
+}
@@ -25,42 +25,95 @@ import com.rometools.rome.feed.synd.SyndFeed;
 import com.rometools.rome.io.FeedException;
 import com.rometools.rome.io.SyndFeedInput;
 import com.rometools.rome.io.XmlReader;
+import org.elasticsearch.ElasticsearchParseException;
 import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingResponse;
 import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkProcessor;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.cluster.ClusterState;
 import org.elasticsearch.cluster.block.ClusterBlockException;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.cluster.metadata.MappingMetaData;
 import org.elasticsearch.common.inject.Inject;
-import org.elasticsearch.common.joda.time.format.ISODateTimeFormat;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
 import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.xcontent.ToXContent;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.indices.IndexAlreadyExistsException;
 import org.elasticsearch.river.AbstractRiverComponent;
 import org.elasticsearch.river.River;
 import org.elasticsearch.river.RiverName;
 import org.elasticsearch.river.RiverSettings;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.fetch.source.FetchSourceContext;
+import org.elasticsearch.search.sort.SortOrder;
 
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
-import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static org.elasticsearch.client.Requests.indexRequest;
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
-import static org.elasticsearch.river.rss.RssToJson.toJson;
+import static org.elasticsearch.river.rss.RssToJson.toBytes;
 
 /**
  * @author dadoonet (David Pilato)
@@ -73,25 +126,112 @@ public class RssRiver extends AbstractRiverComponent implements River {
 
 	private final String typeName;
     private final Boolean raw;
+    private final int seenCacheSize;
+    private final boolean streaming;
+    private final int guidHistory;
+    private final RssDocumentId.Strategy idStrategy;
+    private final boolean legacyIds;
+    private final RssCircuitBreaker circuitBreaker;
+    private final boolean changeDetection;
+    private final boolean distributed;
+    // In distributed mode, nodes each feed is polled by. Null for the river itself.
+    private volatile RssFeedRing ring;
 
+    private final XContentType contentType;
     private final int bulkSize;
+    private final ByteSizeValue bulkSizeBytes;
+    private final boolean adaptiveBulk;
+    private final int minBulkSize;
+    private final int maxBulkSize;
+    private final TimeValue targetBulkLatency;
     private final int maxConcurrentBulk;
     private final TimeValue bulkFlushInterval;
+    private final TimeValue checkpointInterval;
+    private final long maxPendingActions;
+    private final ByteSizeValue maxPendingBytes;
+    private final int maxRetries;
+    private final TimeValue retryDelay;
 
     private volatile BulkProcessor bulkProcessor;
+    private volatile RssCheckpointCoordinator checkpoints;
+    private volatile RssBulkThrottle throttle;
+    private volatile RssBulkSizer bulkSizer;
+    // Number of times we already sent again rejected requests
+    private final Map<ActionRequest, Integer> retries = new IdentityHashMap<ActionRequest, Integer>();
 
-    private volatile ArrayList<Thread> threads;
+    private final int poolSize;
+    private final boolean autoPoolSize;
+    private final double jitter;
+    private final int pipelineSize;
+    private final boolean adaptive;
+    private final TimeValue minUpdateRate;
+    private final TimeValue maxUpdateRate;
+    private final Random random = new Random();
+
+    private volatile ScheduledThreadPoolExecutor scheduler;
+    private volatile ThreadPoolExecutor pipeline;
+    // Feeds we poll by url
+    private final Map<String, RSSParser> parsers = ConcurrentCollections.newConcurrentMap();
 
 	private volatile boolean closed = false;
 
 	private final ArrayList<RssRiverFeedDefinition> feedsDefinition;
+    // Feeds from the river settings and from feed documents by url
+    private volatile Map<String, RssRiverFeedDefinition> definitions;
+    private final TimeValue feedsRefreshInterval;
+    // No feed is started or stopped before feeds are polled (after replay)
+    private volatile boolean polling = false;
+
+    /**
+     * Max number of polling threads when pool_size is not set
+     */
+    private static final int MAX_AUTO_POOL_SIZE = 10;
+
+    /**
+     * Scroll keep alive when reading feed documents
+     */
+    private static final TimeValue FEEDS_SCROLL = TimeValue.timeValueMinutes(1);
+
+    private final RssFetcher fetcher;
+    private final RssHostLimiter hostLimiter;
+    private final boolean asyncFetch;
+    private final int ioThreads;
+    private volatile RssAsyncFetcher asyncFetcher;
+
+    private final File storePath;
+    private final ByteSizeValue storeSegmentSize;
+    private final ByteSizeValue storeMaxSize;
+    private final boolean replay;
+    private volatile RssFeedStore store;
+    // Replay waits for elasticsearch without holding a polling thread
+    private volatile ExecutorService replayer;
+
+    private final RssStatsRegistry statsRegistry;
+    private final RssRiverStats stats;
+    private final TimeValue statsInterval;
+
+    /**
+     * Max number of documents we check in a single multi-get request
+     */
+    private static final int MULTI_GET_SIZE = 100;
 
-	@SuppressWarnings({ "unchecked" })
 	@Inject
-	public RssRiver(RiverName riverName, RiverSettings settings, Client client)
-			throws MalformedURLException {
+	public RssRiver(RiverName riverName, RiverSettings settings, Client client, RssStatsRegistry statsRegistry,
+                    Environment environment) throws MalformedURLException {
+        this(riverName, settings, client, statsRegistry, environment, null);
+    }
+
+    /**
+     * @param ring in distributed mode, only feeds this node owns in the ring are polled
+     */
+	@SuppressWarnings({ "unchecked" })
+	public RssRiver(RiverName riverName, RiverSettings settings, Client client, RssStatsRegistry statsRegistry,
+                    Environment environment, RssFeedRing ring) throws MalformedURLException {
 		super(riverName, settings);
 		this.client = client;
+        this.ring = ring;
+        this.statsRegistry = statsRegistry;
+        this.stats = new RssRiverStats(riverName.name());
 		if (settings.settings().containsKey("rss")) {
 			Map<String, Object> rssSettings = (Map<String, Object>) settings.settings().get("rss");
 			
@@ -101,15 +241,10 @@ public class RssRiver extends AbstractRiverComponent implements River {
 				ArrayList<Map<String, Object>> feeds = (ArrayList<Map<String, Object>>) rssSettings.get("feeds");
 				feedsDefinition = new ArrayList<RssRiverFeedDefinition>(feeds.size());
 				for (Map<String, Object> feed : feeds) {
-					String feedname = XContentMapValues.nodeStringValue(feed.get("name"), null);
-					String url = XContentMapValues.nodeStringValue(feed.get("url"), null);
-                    TimeValue updateRate = TimeValue.parseTimeValue(XContentMapValues.nodeStringValue(
-                            feed.get("update_rate"), null), TimeValue.timeValueMinutes(15));
-                    boolean ignoreTtl = XContentMapValues.nodeBooleanValue(feed.get("ignore_ttl"), false);
-					feedsDefinition.add(new RssRiverFeedDefinition(feedname, url, updateRate, ignoreTtl));
+					feedsDefinition.add(RssRiverFeedDefinition.fromMap(feed));
 				}
 				
-			} else {
+			} else if (rssSettings.get("url") != null) {
 				logger.warn("rss.url and rss.update_rate have been deprecated. Use rss.feeds[].url and rss.feeds[].update_rate instead.");
 				logger.warn("See https://github.com/dadoonet/rssriver/issues/6 for more details...");
 				String url = XContentMapValues.nodeStringValue(rssSettings.get("url"), null);
@@ -119,8 +254,39 @@ public class RssRiver extends AbstractRiverComponent implements River {
 
 				feedsDefinition = new ArrayList<RssRiverFeedDefinition>(1);
 				feedsDefinition.add(new RssRiverFeedDefinition(null, url, updateRate, ignoreTtl));
-			}
+			} else {
+                if (logger.isInfoEnabled()) logger.info("No feed in river settings. Feeds will be read from feed documents");
+                feedsDefinition = new ArrayList<RssRiverFeedDefinition>();
+            }
             raw = XContentMapValues.nodeBooleanValue(rssSettings.get("raw"), true);
+            seenCacheSize = XContentMapValues.nodeIntegerValue(rssSettings.get("seen_cache_size"), 500);
+            // By default, the pool grows with the number of feeds, including feed documents
+            autoPoolSize = rssSettings.get("pool_size") == null;
+            poolSize = XContentMapValues.nodeIntegerValue(rssSettings.get("pool_size"), Math.min(feedsDefinition.size(), MAX_AUTO_POOL_SIZE));
+            jitter = XContentMapValues.nodeDoubleValue(rssSettings.get("jitter"), 0.1);
+            pipelineSize = XContentMapValues.nodeIntegerValue(rssSettings.get("pipeline_size"), 2);
+            adaptive = XContentMapValues.nodeBooleanValue(rssSettings.get("adaptive"), false);
+            minUpdateRate = TimeValue.parseTimeValue(XContentMapValues.nodeStringValue(
+                    rssSettings.get("min_update_rate"), null), TimeValue.timeValueMinutes(1));
+            maxUpdateRate = TimeValue.parseTimeValue(XContentMapValues.nodeStringValue(
+                    rssSettings.get("max_update_rate"), null), TimeValue.timeValueHours(6));
+            statsInterval = TimeValue.parseTimeValue(XContentMapValues.nodeStringValue(
+                    rssSettings.get("stats_interval"), null), TimeValue.timeValueMinutes(1));
+            streaming = XContentMapValues.nodeBooleanValue(rssSettings.get("streaming"), false);
+            guidHistory = XContentMapValues.nodeIntegerValue(rssSettings.get("guid_history"), 200);
+            idStrategy = RssDocumentId.Strategy.fromString(XContentMapValues.nodeStringValue(rssSettings.get("id_strategy"), "legacy"));
+            legacyIds = idStrategy != RssDocumentId.Strategy.LEGACY &&
+                    XContentMapValues.nodeBooleanValue(rssSettings.get("legacy_ids"), false);
+            circuitBreaker = new RssCircuitBreaker(
+                    XContentMapValues.nodeIntegerValue(rssSettings.get("failure_threshold"), 3),
+                    TimeValue.parseTimeValue(XContentMapValues.nodeStringValue(
+                            rssSettings.get("failure_backoff"), null), TimeValue.timeValueMinutes(15)),
+                    TimeValue.parseTimeValue(XContentMapValues.nodeStringValue(
+                            rssSettings.get("max_failure_backoff"), null), TimeValue.timeValueHours(24)));
+            changeDetection = XContentMapValues.nodeBooleanValue(rssSettings.get("change_detection"), true);
+            distributed = XContentMapValues.nodeBooleanValue(rssSettings.get("distributed"), false);
+            feedsRefreshInterval = TimeValue.parseTimeValue(XContentMapValues.nodeStringValue(
+                    rssSettings.get("feeds_refresh_interval"), null), TimeValue.timeValueMinutes(1));
 
         } else {
 			String url = "http://www.lemonde.fr/rss/une.xml";
@@ -128,8 +294,58 @@ public class RssRiver extends AbstractRiverComponent implements River {
 			feedsDefinition = new ArrayList<RssRiverFeedDefinition>(1);
 			feedsDefinition.add(new RssRiverFeedDefinition("lemonde", url, TimeValue.timeValueMinutes(15), false));
             raw = true;
+            seenCacheSize = 500;
+            poolSize = 1;
+            autoPoolSize = false;
+            jitter = 0.1;
+            pipelineSize = 2;
+            adaptive = false;
+            minUpdateRate = TimeValue.timeValueMinutes(1);
+            maxUpdateRate = TimeValue.timeValueHours(6);
+            statsInterval = TimeValue.timeValueMinutes(1);
+            streaming = false;
+            guidHistory = 200;
+            idStrategy = RssDocumentId.Strategy.LEGACY;
+            legacyIds = false;
+            circuitBreaker = new RssCircuitBreaker(3, TimeValue.timeValueMinutes(15), TimeValue.timeValueHours(24));
+            changeDetection = true;
+            distributed = false;
+            feedsRefreshInterval = TimeValue.timeValueMinutes(1);
 		}
+        definitions = new LinkedHashMap<String, RssRiverFeedDefinition>();
+        for (RssRiverFeedDefinition feedDefinition : feedsDefinition) {
+            definitions.put(feedDefinition.getUrl(), feedDefinition);
+        }
+
+
+        Map<String, Object> httpSettings = (Map<String, Object>) settings.settings().get("http");
+        fetcher = RssFetcher.fromSettings(httpSettings);
+        hostLimiter = RssHostLimiter.fromSettings(httpSettings);
+        if (httpSettings != null) {
+            asyncFetch = XContentMapValues.nodeBooleanValue(httpSettings.get("async"), false);
+            ioThreads = XContentMapValues.nodeIntegerValue(httpSettings.get("io_threads"), 2);
+        } else {
+            asyncFetch = false;
+            ioThreads = 2;
+        }
 
+        // Fetched feeds can be kept on disk to index them again later
+        Map<String, Object> storeSettings = (Map<String, Object>) settings.settings().get("store");
+        if (storeSettings != null && XContentMapValues.nodeBooleanValue(storeSettings.get("enabled"), true)) {
+            String path = XContentMapValues.nodeStringValue(storeSettings.get("path"), null);
+            storePath = path != null ? new File(path) :
+                    new File(new File(environment.dataFiles()[0], "rss"), riverName.name());
+            storeSegmentSize = ByteSizeValue.parseBytesSizeValue(XContentMapValues.nodeStringValue(
+                    storeSettings.get("segment_size"), null), new ByteSizeValue(64, ByteSizeUnit.MB));
+            storeMaxSize = ByteSizeValue.parseBytesSizeValue(XContentMapValues.nodeStringValue(
+                    storeSettings.get("max_size"), null), new ByteSizeValue(1, ByteSizeUnit.GB));
+            replay = XContentMapValues.nodeBooleanValue(storeSettings.get("replay"), false);
+        } else {
+            storePath = null;
+            storeSegmentSize = new ByteSizeValue(64, ByteSizeUnit.MB);
+            storeMaxSize = new ByteSizeValue(1, ByteSizeUnit.GB);
+            replay = false;
+        }
 		
 		if (settings.settings().containsKey("index")) {
 			Map<String, Object> indexSettings = (Map<String, Object>) settings
@@ -140,15 +356,43 @@ public class RssRiver extends AbstractRiverComponent implements River {
 					indexSettings.get("type"), "page");
             bulkSize = XContentMapValues.nodeIntegerValue(
                     indexSettings.get("bulk_size"), 25);
+            bulkSizeBytes = ByteSizeValue.parseBytesSizeValue(XContentMapValues.nodeStringValue(
+                    indexSettings.get("bulk_size_bytes"), null), new ByteSizeValue(5, ByteSizeUnit.MB));
+            adaptiveBulk = XContentMapValues.nodeBooleanValue(indexSettings.get("adaptive_bulk"), false);
+            minBulkSize = XContentMapValues.nodeIntegerValue(indexSettings.get("min_bulk_size"), 10);
+            maxBulkSize = XContentMapValues.nodeIntegerValue(indexSettings.get("max_bulk_size"), 5000);
+            targetBulkLatency = TimeValue.parseTimeValue(XContentMapValues.nodeStringValue(
+                    indexSettings.get("target_bulk_latency"), null), TimeValue.timeValueSeconds(1));
             bulkFlushInterval = TimeValue.parseTimeValue(XContentMapValues.nodeStringValue(
                     indexSettings.get("flush_interval"), null), TimeValue.timeValueSeconds(5));
             maxConcurrentBulk = XContentMapValues.nodeIntegerValue(indexSettings.get("max_concurrent_bulk"), 1);
+            contentType = XContentType.valueOf(XContentMapValues.nodeStringValue(
+                    indexSettings.get("format"), "json").toUpperCase(Locale.ROOT));
+            checkpointInterval = TimeValue.parseTimeValue(XContentMapValues.nodeStringValue(
+                    indexSettings.get("checkpoint_interval"), null), bulkFlushInterval);
+            maxPendingActions = XContentMapValues.nodeLongValue(indexSettings.get("max_pending_actions"), 1000);
+            maxPendingBytes = ByteSizeValue.parseBytesSizeValue(XContentMapValues.nodeStringValue(
+                    indexSettings.get("max_pending_bytes"), null), new ByteSizeValue(50, ByteSizeUnit.MB));
+            maxRetries = XContentMapValues.nodeIntegerValue(indexSettings.get("max_retries"), 3);
+            retryDelay = TimeValue.parseTimeValue(XContentMapValues.nodeStringValue(
+                    indexSettings.get("retry_delay"), null), TimeValue.timeValueMillis(500));
         } else {
 			indexName = riverName.name();
 			typeName = "page";
             bulkSize = 100;
+            bulkSizeBytes = new ByteSizeValue(5, ByteSizeUnit.MB);
+            adaptiveBulk = false;
+            minBulkSize = 10;
+            maxBulkSize = 5000;
+            targetBulkLatency = TimeValue.timeValueSeconds(1);
             maxConcurrentBulk = 1;
             bulkFlushInterval = TimeValue.timeValueSeconds(5);
+            contentType = XContentType.JSON;
+            checkpointInterval = TimeValue.timeValueSeconds(5);
+            maxPendingActions = 1000;
+            maxPendingBytes = new ByteSizeValue(50, ByteSizeUnit.MB);
+            maxRetries = 3;
+            retryDelay = TimeValue.timeValueMillis(500);
         }
 	}
 
@@ -182,91 +426,632 @@ public class RssRiver extends AbstractRiverComponent implements River {
             return;
         }
 
+        if (distributed && ring == null) {
+            // Each data node polls its share of the feeds
+            if (logger.isInfoEnabled()) logger.info("Feeds are polled by the data nodes of the cluster");
+            return;
+        }
+        List<RssRiverFeedDefinition> feeds = new ArrayList<RssRiverFeedDefinition>();
+        for (RssRiverFeedDefinition feedDefinition : feedsDefinition) {
+            if (ring == null || ring.isLocal(feedDefinition.getUrl())) {
+                feeds.add(feedDefinition);
+            }
+        }
+
+        // Feed checkpoints are written once their content has been indexed
+        this.checkpoints = new RssCheckpointCoordinator(logger, client, riverName.name());
+        // We don't poll feeds when too many documents are waiting to be indexed
+        this.throttle = new RssBulkThrottle(maxPendingActions, maxPendingBytes.bytes());
+        stats.setThrottle(throttle);
+        statsRegistry.register(stats);
+        // In adaptive mode, we decide ourselves when a bulk has enough documents
+        if (adaptiveBulk) {
+            this.bulkSizer = new RssBulkSizer(bulkSize, minBulkSize, maxBulkSize, targetBulkLatency);
+        }
+
         // Creating bulk processor
         this.bulkProcessor = BulkProcessor.builder(client, new BulkProcessor.Listener() {
             @Override
             public void beforeBulk(long executionId, BulkRequest request) {
                 logger.debug("Going to execute new bulk composed of {} actions", request.numberOfActions());
+                if (bulkSizer != null) {
+                    bulkSizer.onBulk();
+                }
             }
 
             @Override
             public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
                 logger.debug("Executed bulk composed of {} actions", request.numberOfActions());
+                if (bulkSizer != null) {
+                    bulkSizer.onResponse(request.numberOfActions(), response.getTookInMillis());
+                    if (logger.isTraceEnabled()) logger.trace("Bulk took [{}]ms. Bulk size is now {}", response.getTookInMillis(), bulkSizer.getActions());
+                }
                 if (response.hasFailures()) {
                     logger.warn("There was failures while executing bulk", response.buildFailureMessage());
-                    if (logger.isDebugEnabled()) {
-                        for (BulkItemResponse item : response.getItems()) {
-                            if (item.isFailed()) {
-                                logger.debug("Error for {}/{}/{} for {} operation: {}", item.getIndex(),
-                                        item.getType(), item.getId(), item.getOpType(), item.getFailureMessage());
-                            }
+                }
+                List<ActionRequest> requests = request.requests();
+                BulkItemResponse[] items = response.getItems();
+                int failures = 0;
+                for (int i = 0; i < items.length; i++) {
+                    BulkItemResponse item = items[i];
+                    if (item.isFailed()) {
+                        failures++;
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("Error for {}/{}/{} for {} operation: {}", item.getIndex(),
+                                    item.getType(), item.getId(), item.getOpType(), item.getFailureMessage());
+                        }
+                        // The cluster is overloaded, we will send it again later
+                        if (isRejected(item.getFailureMessage()) && retry(requests.get(i))) {
+                            continue;
                         }
                     }
+                    done(requests.get(i), item.isFailed());
                 }
+                stats.onBulk(request.numberOfActions(), response.getTookInMillis(), failures);
             }
 
             @Override
             public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
                 logger.warn("Error executing bulk", failure);
+                stats.onBulkFailure(request.numberOfActions());
+                if (bulkSizer != null) {
+                    bulkSizer.onFailure();
+                }
+                boolean rejected = ExceptionsHelper.unwrapCause(failure) instanceof EsRejectedExecutionException;
+                for (ActionRequest actionRequest : request.requests()) {
+                    if (rejected && retry(actionRequest)) {
+                        continue;
+                    }
+                    done(actionRequest, true);
+                }
             }
         })
-                .setBulkActions(bulkSize)
+                .setBulkActions(adaptiveBulk ? -1 : bulkSize)
+                .setBulkSize(bulkSizeBytes)
                 .setConcurrentRequests(maxConcurrentBulk)
                 .setFlushInterval(bulkFlushInterval)
                 .build();
 
-        // We create as many Threads as there are feeds
-		threads = new ArrayList<Thread>(feedsDefinition.size());
-		int threadNumber = 0;
-		for (RssRiverFeedDefinition feedDefinition : feedsDefinition) {
-			Thread thread = EsExecutors.daemonThreadFactory(settings.globalSettings(), "rss_slurper_" + threadNumber)
-                    .newThread(new RSSParser(feedDefinition));
-			thread.start();
-			threads.add(thread);
-			threadNumber++;
+        // Feeds are polled by a bounded pool of threads when they are due
+        if (logger.isDebugEnabled()) logger.debug("Polling {} of {} feeds with {} threads", feeds.size(), feedsDefinition.size(), poolSize);
+        scheduler = new ScheduledThreadPoolExecutor(Math.max(poolSize, 1),
+                EsExecutors.daemonThreadFactory(settings.globalSettings(), "rss_slurper"));
+        // Large feeds are converted and indexed by chunks in parallel. When all threads are busy,
+        // the polling thread does the job itself so we never keep too many entries in memory.
+        if (pipelineSize > 0) {
+            pipeline = new ThreadPoolExecutor(pipelineSize, pipelineSize, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(pipelineSize),
+                    EsExecutors.daemonThreadFactory(settings.globalSettings(), "rss_pipeline"),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+        // Network threads wait for feed servers while polling threads only parse and index feeds
+        if (asyncFetch) {
+            asyncFetcher = new RssAsyncFetcher(logger, settings.globalSettings(), fetcher, ioThreads);
+        }
+        if (storePath != null) {
+            try {
+                store = new RssFeedStore(logger, storePath, storeSegmentSize.bytes(), storeMaxSize.bytes());
+            } catch (IOException e) {
+                logger.warn("failed to open feed store [{}], fetched feeds won't be stored", e, storePath);
+            }
+        }
+
+        // Feeds hosted on the same server are spread over their update rate
+        Map<String, Integer> feedsPerHost = new HashMap<String, Integer>();
+        for (RssRiverFeedDefinition feedDefinition : feeds) {
+            String host = RssHostLimiter.host(feedDefinition.getUrl());
+            Integer count = feedsPerHost.get(host);
+            feedsPerHost.put(host, count == null ? 1 : count + 1);
+        }
+        Map<String, Integer> hostIndex = new HashMap<String, Integer>();
+        final Map<RSSParser, Long> firstPolls = new LinkedHashMap<RSSParser, Long>();
+		for (RssRiverFeedDefinition feedDefinition : feeds) {
+            if (parsers.containsKey(feedDefinition.getUrl())) {
+                logger.warn("Feed [{}] is defined twice. Ignoring", feedDefinition.getUrl());
+                continue;
+            }
+            RSSParser parser = new RSSParser(feedDefinition);
+            parsers.put(parser.url, parser);
+            // We spread first polls so feeds sharing the same update rate are not fetched at the same time
+            long delay = (long) (random.nextDouble() * jitter * feedDefinition.getUpdateRate().millis());
+            if (parser.host != null && feedsPerHost.get(parser.host) > 1) {
+                Integer index = hostIndex.get(parser.host);
+                index = index == null ? 0 : index;
+                hostIndex.put(parser.host, index + 1);
+                long slot = feedDefinition.getUpdateRate().millis() / feedsPerHost.get(parser.host);
+                delay = index * slot + (long) (random.nextDouble() * jitter * slot);
+            }
+            firstPolls.put(parser, delay);
 		}
+        if (replay && store != null) {
+            // Feeds are polled once the store has been indexed again. Replay runs on its own thread:
+            // bulk retries and checkpoint flushes it waits for run on the scheduler.
+            replayer = Executors.newSingleThreadExecutor(EsExecutors.daemonThreadFactory(settings.globalSettings(), "rss_replay"));
+            replayer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (feedsRefreshInterval.millis() > 0) {
+                        // Stored bodies of feed documents are replayed too
+                        startFeedDocuments(firstPolls);
+                    }
+                    replay();
+                    if (!closed) {
+                        schedulePolls(firstPolls);
+                        scheduleFeedsRefresh();
+                    }
+                    replayer.shutdown();
+                }
+            });
+        } else {
+            schedulePolls(firstPolls);
+            scheduleFeedsRefresh();
+        }
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkpoints.flush();
+            }
+        }, checkpointInterval.millis(), checkpointInterval.millis(), TimeUnit.MILLISECONDS);
+        if (statsInterval.millis() > 0) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    writeStats();
+                }
+            }, statsInterval.millis(), statsInterval.millis(), TimeUnit.MILLISECONDS);
+        }
 	}
 
+    /**
+     * Feeds can be added, modified or removed with feed documents while the river is running
+     */
+    private void scheduleFeedsRefresh() {
+        polling = true;
+        if (feedsRefreshInterval.millis() > 0) {
+            try {
+                scheduler.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        refreshFeeds();
+                    }
+                }, 0, feedsRefreshInterval.millis(), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // River is closing
+            }
+        } else {
+            // Ring may have changed while replaying
+            updateFeeds();
+        }
+    }
+
 	@Override
 	public void close() {
 		if (logger.isInfoEnabled()) logger.info("Closing rss river");
 		closed = true;
+        statsRegistry.unregister(stats);
 
-        bulkProcessor.close();
+        // We have to stop polling feeds
+        if (replayer != null) {
+            replayer.shutdownNow();
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (pipeline != null) {
+            // Chunks which did not start will never run: pollers waiting for them must not hang
+            for (Runnable chunk : pipeline.shutdownNow()) {
+                if (chunk instanceof Future) {
+                    ((Future<?>) chunk).cancel(false);
+                }
+            }
+        }
+        if (asyncFetcher != null) {
+            asyncFetcher.close();
+        }
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                logger.warn("failed to close feed store", e);
+            }
+        }
 
-		// We have to close each Thread
-		if (threads != null) {
-			for (Thread thread : threads) {
-				if (thread != null) {
-					thread.interrupt();
-				}
-			}
-		}
+        if (bulkProcessor != null) {
+            bulkProcessor.close();
+        }
+
+        // Write what is ready. Other feeds will restart from their previous checkpoint.
+        if (checkpoints != null) {
+            checkpoints.flush();
+        }
 	}
 
+    /**
+     * In distributed mode, poll the feeds this node owns in a new ring
+     * @param ring nodes feeds are polled by
+     */
+    public void assign(RssFeedRing ring) {
+        this.ring = ring;
+        updateFeeds();
+    }
+
+    /**
+     * Read feeds defined as documents in _river (documents with a "feed" object), then start,
+     * stop or restart the feeds which changed. Current feeds are kept if we can not read them.
+     */
+    private void refreshFeeds() {
+        Map<String, RssRiverFeedDefinition> definitions = readFeedDefinitions();
+        if (definitions == null) {
+            return;
+        }
+        this.definitions = definitions;
+        updateFeeds();
+    }
+
+    /**
+     * Create the parsers of feed documents before the store is replayed. They are polled with
+     * the feeds of the river settings.
+     * @param firstPolls first poll delay of the feeds to poll once the store has been replayed
+     */
+    private void startFeedDocuments(Map<RSSParser, Long> firstPolls) {
+        Map<String, RssRiverFeedDefinition> definitions = readFeedDefinitions();
+        if (definitions == null) {
+            return;
+        }
+        this.definitions = definitions;
+        for (RssRiverFeedDefinition feedDefinition : definitions.values()) {
+            if (parsers.containsKey(feedDefinition.getUrl()) || (ring != null && !ring.isLocal(feedDefinition.getUrl()))) {
+                continue;
+            }
+            RSSParser parser = new RSSParser(feedDefinition);
+            parsers.put(parser.url, parser);
+            firstPolls.put(parser, (long) (random.nextDouble() * jitter * feedDefinition.getUpdateRate().millis()));
+        }
+    }
+
+    /**
+     * @return feeds of the river settings and of feed documents by url or null if we can not read feed documents
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, RssRiverFeedDefinition> readFeedDefinitions() {
+        Map<String, RssRiverFeedDefinition> definitions = new LinkedHashMap<String, RssRiverFeedDefinition>();
+        for (RssRiverFeedDefinition feedDefinition : feedsDefinition) {
+            definitions.put(feedDefinition.getUrl(), feedDefinition);
+        }
+        String scrollId = null;
+        try {
+            SearchResponse response = client.prepareSearch("_river").setTypes(riverName.name())
+                    .setSearchType(SearchType.SCAN)
+                    .setScroll(FEEDS_SCROLL)
+                    .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), FilterBuilders.existsFilter("feed.url")))
+                    .setSize(500)
+                    .execute().actionGet();
+            scrollId = response.getScrollId();
+            while (!closed) {
+                response = client.prepareSearchScroll(scrollId).setScroll(FEEDS_SCROLL).execute().actionGet();
+                scrollId = response.getScrollId();
+                if (response.getHits().getHits().length == 0) {
+                    break;
+                }
+                for (SearchHit hit : response.getHits()) {
+                    Object feed = hit.sourceAsMap().get("feed");
+                    if (!(feed instanceof Map)) {
+                        continue;
+                    }
+                    RssRiverFeedDefinition feedDefinition = RssRiverFeedDefinition.fromMap((Map<String, Object>) feed);
+                    if (feedDefinition.getUrl() == null) {
+                        logger.warn("Feed document [{}] has no url. Ignoring", hit.getId());
+                        continue;
+                    }
+                    definitions.put(feedDefinition.getUrl(), feedDefinition);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("failed to read feed documents, keeping current feeds", e);
+            return null;
+        } finally {
+            clearScroll(scrollId);
+        }
+        return definitions;
+    }
+
+    /**
+     * Release the search context of a scroll we stopped reading
+     */
+    private void clearScroll(String scrollId) {
+        if (scrollId == null) {
+            return;
+        }
+        try {
+            client.prepareClearScroll().addScrollId(scrollId).execute().actionGet();
+        } catch (Exception e) {
+            // It will expire anyway
+            logger.debug("failed to clear scroll [{}]", e, scrollId);
+        }
+    }
+
+    /**
+     * Start new feeds, stop removed ones and restart the ones whose definition changed.
+     * Other feeds are not touched.
+     */
+    private synchronized void updateFeeds() {
+        if (closed || !polling) {
+            return;
+        }
+        Map<String, RssRiverFeedDefinition> definitions = this.definitions;
+        RssFeedRing ring = this.ring;
+        // Modified feeds: the new parser goes on from where the old one is
+        Map<String, RSSParser> modified = new HashMap<String, RSSParser>();
+        for (RSSParser parser : new ArrayList<RSSParser>(parsers.values())) {
+            RssRiverFeedDefinition feedDefinition = definitions.get(parser.url);
+            boolean local = ring == null || ring.isLocal(parser.url);
+            if (feedDefinition == null || !local || !parser.isDefinedBy(feedDefinition)) {
+                if (logger.isInfoEnabled()) logger.info("Stopping feed [{}]", parser.url);
+                parser.cancel();
+                parsers.remove(parser.url);
+                stats.remove(parser.url);
+                if (feedDefinition != null && local) {
+                    modified.put(parser.url, parser);
+                }
+            }
+        }
+        for (RssRiverFeedDefinition feedDefinition : definitions.values()) {
+            if (parsers.containsKey(feedDefinition.getUrl()) || (ring != null && !ring.isLocal(feedDefinition.getUrl()))) {
+                continue;
+            }
+            RSSParser parser = new RSSParser(feedDefinition);
+            parsers.put(parser.url, parser);
+            RSSParser previous = modified.get(parser.url);
+            if (previous == null) {
+                parser.schedule((long) (random.nextDouble() * jitter * feedDefinition.getUpdateRate().millis()));
+            } else {
+                previous.replaceBy(parser);
+            }
+        }
+        if (autoPoolSize) {
+            int threads = Math.max(1, Math.min(parsers.size(), MAX_AUTO_POOL_SIZE));
+            if (threads != scheduler.getCorePoolSize()) {
+                if (logger.isDebugEnabled()) logger.debug("Polling {} feeds with {} threads", parsers.size(), threads);
+                scheduler.setCorePoolSize(threads);
+            }
+        }
+    }
+
+    private void schedulePolls(Map<RSSParser, Long> firstPolls) {
+        for (Map.Entry<RSSParser, Long> firstPoll : firstPolls.entrySet()) {
+            firstPoll.getKey().schedule(firstPoll.getValue());
+        }
+    }
+
+    /**
+     * Index again the feeds we have in the store, without fetching them
+     */
+    private void replay() {
+        if (logger.isInfoEnabled()) logger.info("Indexing again feeds from store [{}] ([{}])", storePath, new ByteSizeValue(store.size()));
+        long start = System.currentTimeMillis();
+        final CounterMetric records = new CounterMetric();
+        try {
+            store.read(new RssFeedStore.Visitor() {
+                @Override
+                public boolean visit(RssFeedStore.Record record) throws IOException {
+                    RSSParser parser = parsers.get(record.getUrl());
+                    if (parser == null) {
+                        // This feed has been removed from the river
+                        return !closed;
+                    }
+                    // Let elasticsearch index what we already sent before reading more
+                    while (throttle.isOverloaded()) {
+                        if (closed) {
+                            return false;
+                        }
+                        try {
+                            Thread.sleep(100);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return false;
+                        }
+                    }
+                    parser.replay(record);
+                    records.inc();
+                    return !closed;
+                }
+            });
+            if (logger.isInfoEnabled()) logger.info("Indexed again [{}] stored feeds in [{}]", records.count(),
+                    TimeValue.timeValueMillis(System.currentTimeMillis() - start));
+        } catch (IOException e) {
+            logger.warn("failed to read feed store [{}]", e, storePath);
+        }
+    }
+
+    /**
+     * Write river statistics in _river
+     */
+    private void writeStats() {
+        try {
+            XContentBuilder builder = jsonBuilder().startObject();
+            stats.toXContent(builder, ToXContent.EMPTY_PARAMS);
+            builder.endObject();
+            // Each node polling a distributed river has its own statistics
+            String id = ring != null ? RestRssStatsAction.NODE_STATS_ID_PREFIX + ring.getLocalNodeId() : RestRssStatsAction.STATS_ID;
+            client.prepareIndex("_river", riverName.name(), id).setSource(builder)
+                    .execute(new ActionListener<IndexResponse>() {
+                        @Override
+                        public void onResponse(IndexResponse response) {
+                        }
+
+                        @Override
+                        public void onFailure(Throwable e) {
+                            logger.warn("failed to write river statistics", e);
+                        }
+                    });
+        } catch (IOException e) {
+            logger.warn("failed to write river statistics", e);
+        }
+    }
+
+    /**
+     * Send a document to the bulk processor
+     */
+    private void index(IndexRequest request) {
+        throttle.add(request);
+        bulkProcessor.add(request);
+        if (bulkSizer != null && bulkSizer.onAdd()) {
+            bulkProcessor.flush();
+        }
+    }
+
+    /**
+     * A request sent to the bulk processor has been executed
+     * @param request the request
+     * @param failed true if it definitely failed
+     */
+    private void done(ActionRequest request, boolean failed) {
+        synchronized (retries) {
+            retries.remove(request);
+        }
+        throttle.done(request);
+        checkpoints.done(request, failed);
+        if (failed && request instanceof IndexRequest) {
+            IndexRequest indexRequest = (IndexRequest) request;
+            forgetSeenId(indexRequest.index(), indexRequest.id());
+        }
+    }
+
+    private static boolean isRejected(String failureMessage) {
+        return failureMessage != null && failureMessage.contains(EsRejectedExecutionException.class.getSimpleName());
+    }
+
+    /**
+     * Send again a rejected request to the bulk processor after an exponential backoff delay
+     * @param request the rejected request
+     * @return false if we gave up
+     */
+    private boolean retry(final ActionRequest request) {
+        if (closed || !(request instanceof IndexRequest)) {
+            return false;
+        }
+        int attempt;
+        synchronized (retries) {
+            Integer previous = retries.get(request);
+            attempt = previous == null ? 0 : previous;
+            if (attempt >= maxRetries) {
+                return false;
+            }
+            retries.put(request, attempt + 1);
+        }
+        long delay = retryDelay.millis() << attempt;
+        stats.onRetry();
+        if (logger.isDebugEnabled()) logger.debug("Request rejected. Sending it again in {}", TimeValue.timeValueMillis(delay));
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!closed) {
+                        bulkProcessor.add((IndexRequest) request);
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            // River is closing
+            return false;
+        }
+    }
+
+    /**
+     * Add some randomness to a delay so feeds sharing the same update rate
+     * don't hit the network at the same time. The delay is never shortened, as it may come
+     * from the server (Retry-After, ttl or max-age).
+     * @param delay delay in ms
+     * @return delay + up to jitter
+     */
+    private long jitter(long delay) {
+        long spread = (long) (delay * jitter);
+        if (spread <= 0) {
+            return delay;
+        }
+        return delay + (long) (random.nextDouble() * spread);
+    }
+
 	
-	private SyndFeed getFeed(String url) {
+    /**
+     * Same as {@link XmlReader#XmlReader(URLConnection)} but reading the body from a stream
+     * @param http true if the body comes from an HTTP server
+     */
+    private XmlReader xmlReader(InputStream is, String contentType, boolean http) throws IOException {
+        if (http || contentType != null) {
+            return new XmlReader(is, contentType, true);
+        }
+        return new XmlReader(is, true);
+    }
+
+    /**
+     * Read the whole feed body from the server response
+     * @return the body or null if we could not read it
+     */
+    private byte[] readBody(String url, RssFetcher.Response response, RssRiverStats.Feed feedStats) {
+        try {
+            return Streams.copyToByteArray(response.getBody(feedStats.getBytes()));
+        } catch (IOException e) {
+            if (!tooLarge(url, e, feedStats)) {
+                logger.error("Can not read feed from [{}].", url);
+            }
+        }
+        return null;
+    }
+
+	private SyndFeed getFeed(String url, RssFetcher.Response response, byte[] body) {
 		try {
-			URL feedUrl = new URL(url);
-			URLConnection openConnection = feedUrl.openConnection();
-	        openConnection.addRequestProperty("User-Agent", "RSS River for Elasticsearch (https://github.com/dadoonet/rssriver)"); 
 			SyndFeedInput input = new SyndFeedInput();
             input.setPreserveWireFeed(true);
-			SyndFeed feed = input.build(new XmlReader(openConnection));
+			SyndFeed feed = input.build(xmlReader(new ByteArrayInputStream(body), response.getContentType(), response.isHttp()));
 			return feed;
-		} catch (MalformedURLException e) {
-			logger.error("RSS Url is incorrect : [{}].", url);
 		} catch (IllegalArgumentException e) {
 			logger.error("Feed from [{}] is incorrect.", url);
 		} catch (FeedException e) {
-			logger.error("Can not parse feed from [{}].", url);
+            logger.error("Can not parse feed from [{}].", url);
 		} catch (IOException e) {
-			logger.error("Can not read feed from [{}].", url);
+            logger.error("Can not read feed from [{}].", url);
 		}
 		
 		return null;
 	}
 
+    /**
+     * @param copy receives a copy of the body if not null
+     */
+    private RssStaxFeedReader getStreamingFeed(String url, RssFetcher.Response response, RssRiverStats.Feed feedStats, OutputStream copy) {
+        try {
+            InputStream is = response.getBody(feedStats.getBytes());
+            if (copy != null) {
+                is = RssFeedStore.tee(is, copy);
+            }
+            return new RssStaxFeedReader(xmlReader(is, response.getContentType(), response.isHttp()));
+        } catch (XMLStreamException e) {
+            if (!tooLarge(url, e, feedStats)) {
+                logger.error("Can not parse feed from [{}].", url);
+            }
+        } catch (IOException e) {
+            if (!tooLarge(url, e, feedStats)) {
+                logger.error("Can not read feed from [{}].", url);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check if we could not read a feed because it is bigger than the max body size
+     * @return true if the feed was too big
+     */
+    private boolean tooLarge(String url, Throwable e, RssRiverStats.Feed feedStats) {
+        if (!RssFetcher.isTooLarge(e)) {
+            return false;
+        }
+        logger.warn("Feed from [{}] is bigger than [{}]. Not reading it.", url, fetcher.getMaxBodySize());
+        feedStats.getTooLarge().inc();
+        return true;
+    }
+
     /**
      * Check if a mapping already exists in an index
      * @param index Index name
@@ -318,17 +1103,83 @@ public class RssRiver extends AbstractRiverComponent implements River {
         if (logger.isTraceEnabled()) logger.trace("/pushMapping("+index+","+type+")");
     }
 
+    /**
+     * A document we supposed to be indexed failed, so it must not be considered
+     * as already seen anymore
+     * @param index Index name
+     * @param id Document id
+     */
+    private void forgetSeenId(String index, String id) {
+        if (!indexName.equals(index)) return;
+        for (RSSParser parser : parsers.values()) {
+            if (parser.seenIds != null) {
+                parser.seenIds.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Check which documents already exist in the index using multi-get requests
+     * without fetching the _source.
+     * @param ids Document ids to check
+     * @return ids which already exist
+     */
+    private Set<String> getExistingIds(Collection<String> ids) {
+        Set<String> existingIds = new HashSet<String>();
+        Iterator<String> iterator = ids.iterator();
+        while (iterator.hasNext()) {
+            MultiGetRequestBuilder request = client.prepareMultiGet().setRealtime(true);
+            for (int i = 0; i < MULTI_GET_SIZE && iterator.hasNext(); i++) {
+                request.add(new MultiGetRequest.Item(indexName, typeName, iterator.next())
+                        .fetchSourceContext(new FetchSourceContext(false)));
+            }
+
+            MultiGetResponse response = request.execute().actionGet();
+            for (MultiGetItemResponse item : response.getResponses()) {
+                if (item.isFailed()) {
+                    // We will index it again. Same id, so no duplicate.
+                    if (logger.isDebugEnabled()) logger.debug("Can not check if {} exists: {}", item.getId(), item.getFailure().getMessage());
+                } else if (item.getResponse().isExists()) {
+                    existingIds.add(item.getId());
+                }
+            }
+        }
+        return existingIds;
+    }
+
 	private class RSSParser implements Runnable {
 		private String url;
-		private TimeValue updateRate;
+        private final String host;
+		private final RssPollingRate rate;
 		private String feedname;
         private boolean ignoreTtl;
+        private final RssSeenIdCache seenIds;
+        private boolean warmed = false;
+        private final String lastupdateField;
+        // Feed state is read once from _river and then kept in memory
+        private RssFeedState state;
+        // Set when some content failed so we read again the last checkpoint
+        private volatile boolean reload = false;
+        private final RssRiverStats.Feed feedStats;
+        private final TimeValue updateRate;
+        // Set when the feed is removed or modified
+        private volatile boolean cancelled = false;
+        // True from the start of a poll until the next one is scheduled
+        private boolean polling = false;
+        // Parser polling this feed since its definition was modified
+        private RSSParser replacement;
 
         public RSSParser(String feedname, String url, TimeValue updateRate, boolean ignoreTtl) {
 			this.feedname = feedname;
 			this.url = url;
-			this.updateRate = updateRate;
+            this.updateRate = updateRate;
+            this.host = RssHostLimiter.host(url);
+			this.rate = new RssPollingRate(updateRate, adaptive, minUpdateRate, maxUpdateRate);
             this.ignoreTtl = ignoreTtl;
+            this.seenIds = seenCacheSize > 0 ? new RssSeenIdCache(seenCacheSize) : null;
+            this.lastupdateField = "_lastupdated_" + UUID.nameUUIDFromBytes(url.getBytes()).toString();
+            this.feedStats = stats.feed(feedname, url);
+            feedStats.setSeenIds(seenIds);
             if (logger.isInfoEnabled()) logger.info("creating rss stream river [{}] for [{}] every [{}] ms",
                     feedname, url, updateRate);
 		}
@@ -340,138 +1191,824 @@ public class RssRiver extends AbstractRiverComponent implements River {
                     feedDefinition.isIgnoreTtl());
         }
 
-        @SuppressWarnings("unchecked")
+        /**
+         * @return true if this feed is polled as the definition says
+         */
+        private boolean isDefinedBy(RssRiverFeedDefinition feedDefinition) {
+            return safeEquals(feedname, feedDefinition.getFeedname()) && ignoreTtl == feedDefinition.isIgnoreTtl() &&
+                    updateRate.millis() == feedDefinition.getUpdateRate().millis();
+        }
+
+        /**
+         * Stop polling this feed. A poll in progress ends normally.
+         */
+        private void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Let another parser poll this feed with the state we have in memory. If a poll is running, the other
+         * parser starts when it ends so the feed is never polled twice at the same time.
+         * Must be called after {@link #cancel()}.
+         */
+        private void replaceBy(RSSParser parser) {
+            synchronized (this) {
+                replacement = parser;
+                if (polling) {
+                    // Until then, the other parser must not hand over its empty state
+                    synchronized (parser) {
+                        parser.polling = true;
+                    }
+                    return;
+                }
+            }
+            handOver(parser);
+        }
+
+        private void handOver(RSSParser parser) {
+            synchronized (this) {
+                parser.state = state;
+                parser.reload = reload;
+            }
+            if (logger.isDebugEnabled()) logger.debug("Feed {} was modified. Polling it with the new definition", url);
+            parser.scheduleNext();
+        }
+
+        /**
+         * Read again the checkpoint before next poll, also in the parser which replaced this one
+         */
+        private void reloadState() {
+            RSSParser next;
+            synchronized (this) {
+                reload = true;
+                next = replacement;
+            }
+            if (next != null) {
+                next.reloadState();
+            }
+        }
+
 		@Override
 		public void run() {
-            while (true) {
-				if (closed) {
-					return;
-				}
-				
-				// Let's call the Rss flow
-				SyndFeed feed = getFeed(url);
-                if (feed != null) {
-                    if (logger.isDebugEnabled()) logger.debug("Reading feed from {}", url);
-                    Date feedDate = feed.getPublishedDate();
-                    if (logger.isDebugEnabled()) logger.debug("Feed publish date is {}", feedDate);
-
-                    String lastupdateField = "_lastupdated_" + UUID.nameUUIDFromBytes(url.getBytes()).toString();
-                    Date lastDate = getLastDateFromRiver(lastupdateField);
-                    // Comparing dates to see if we have something to do or not
-                    if (lastDate == null || (feedDate != null && feedDate.after(lastDate))) {
-                        // We have to send results to ES
-                        if (logger.isTraceEnabled()) logger.trace("Feed is updated : {}", feed);
+            synchronized (this) {
+                if (closed || cancelled) {
+                    return;
+                }
+                polling = true;
+            }
+
+            // Let elasticsearch index what we already sent before reading more
+            if (throttle.isOverloaded()) {
+                if (logger.isDebugEnabled()) logger.debug("Too many pending documents ([{}] documents, [{}]). Delaying poll of {}",
+                        throttle.getPendingActions(), new ByteSizeValue(throttle.getPendingBytes()), url);
+                stats.onDelayedPoll();
+                schedule(bulkFlushInterval.millis());
+                return;
+            }
+
+            boolean async = false;
+            try {
+                if (!warmed) {
+                    warmSeenIds();
+                    warmed = true;
+                }
+                async = poll();
+            } catch (Exception e) {
+                logger.warn("failed to poll feed [{}]", e, url);
+                feedStats.onError(e.toString());
+            } finally {
+                if (!async) {
+                    scheduleNext();
+                }
+            }
+        }
+
+        /**
+         * Schedule next poll of this feed
+         */
+        private void scheduleNext() {
+            long now = System.currentTimeMillis();
+            schedule(rate.skip(now, jitter(rate.nextDelay(now))));
+        }
+
+        /**
+         * Schedule next poll of this feed in some ms
+         */
+        private void schedule(long delay) {
+            RSSParser next;
+            synchronized (this) {
+                polling = false;
+                next = cancelled ? replacement : this;
+            }
+            if (next != this) {
+                if (next != null) {
+                    handOver(next);
+                }
+                return;
+            }
+            if (closed) {
+                return;
+            }
+            if (logger.isDebugEnabled()) logger.debug("Rss river is going to poll {} again in {}", url, TimeValue.timeValueMillis(delay));
+            try {
+                scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // River is closing
+            }
+        }
+
+        /**
+         * @return true if next poll has already been scheduled or will be once the feed is fetched asynchronously
+         */
+        private boolean poll() {
+            if (state == null || reload) {
+                reload = false;
+                state = getStateFromRiver();
+                if (state == null) {
+                    // We will try again on next poll
+                    return false;
+                }
+                checkpoints.reset(lastupdateField);
+            }
+
+            // We don't poll again too soon a feed which keeps failing
+            long backoff = circuitBreaker.delay(state, System.currentTimeMillis());
+            if (backoff > 0) {
+                if (logger.isDebugEnabled()) logger.debug("Feed {} failed [{}] times in a row. Next try in {}",
+                        url, state.getFailures(), TimeValue.timeValueMillis(backoff));
+                schedule(backoff);
+                return true;
+            }
+
+            // Be polite with servers hosting many of our feeds
+            long wait = hostLimiter.tryAcquire(host, System.currentTimeMillis());
+            if (wait > 0) {
+                if (logger.isDebugEnabled()) logger.debug("Too many requests sent to [{}]. Delaying poll of {} for {}",
+                        host, url, TimeValue.timeValueMillis(wait));
+                stats.onDelayedPoll();
+                schedule(wait);
+                return true;
+            }
+
+            if (asyncFetcher != null && RssAsyncFetcher.supports(url)) {
+                return pollAsync();
+            }
+
+			// Let's call the Rss flow
+            feedStats.onPoll();
+            long start = System.currentTimeMillis();
+            RssFetcher.Response response;
+            try {
+                response = fetcher.fetch(url, state.getEtag(), state.getLastModified());
+            } catch (MalformedURLException e) {
+                logger.error("RSS Url is incorrect : [{}].", url);
+                failed("incorrect url");
+                return false;
+            } catch (IOException e) {
+                logger.error("Can not read feed from [{}]: {}", url, e.getMessage());
+                failed("can not open connection: " + e.getMessage());
+                return false;
+            }
+            try {
+                read(response, start);
+            } finally {
+                response.close();
+            }
+            return false;
+        }
 
+        /**
+         * Send the request without waiting for the server. The response is read and processed
+         * by a polling thread.
+         * @return true if next poll has already been scheduled or will be once the feed is fetched
+         */
+        private boolean pollAsync() {
+            final long start = System.currentTimeMillis();
+            boolean sent;
+            try {
+                sent = asyncFetcher.fetch(url, state.getEtag(), state.getLastModified(), new ActionListener<RssFetcher.Response>() {
+                    @Override
+                    public void onResponse(final RssFetcher.Response response) {
                         try {
-                            // We have now to send each feed to ES
-                            Date mostRecentItemDate = null;
-                            for (SyndEntry message : (Iterable<SyndEntry>) feed.getEntries()) {
-                                // We don't have a global date, so let's see if we have one in items
-                                if (feedDate == null) {
-                                    if (message.getUpdatedDate() != null) {
-                                        if (lastDate == null || message.getUpdatedDate().after(lastDate)) {
-                                            if (mostRecentItemDate == null || message.getUpdatedDate().after(mostRecentItemDate)) {
-                                                mostRecentItemDate = message.getUpdatedDate();
-                                                if (logger.isTraceEnabled()) logger.trace("No feed date. Using item updated date : {}", feedDate);
-                                            }
-                                        }
-                                    }
-                                    if (message.getPublishedDate() != null) {
-                                        if (lastDate == null || message.getPublishedDate().after(lastDate)) {
-                                            if (mostRecentItemDate == null || message.getPublishedDate().after(mostRecentItemDate)) {
-                                                mostRecentItemDate = message.getPublishedDate();
-                                                if (logger.isTraceEnabled()) logger.trace("No feed date. Using item published date : {}", feedDate);
-                                            }
+                            scheduler.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    try {
+                                        if (!closed) {
+                                            read(response, start);
                                         }
+                                    } catch (Exception e) {
+                                        logger.warn("failed to poll feed [{}]", e, url);
+                                        feedStats.onError(e.toString());
+                                    } finally {
+                                        response.close();
+                                        scheduleNext();
                                     }
                                 }
+                            });
+                        } catch (RejectedExecutionException e) {
+                            // River is closing
+                        }
+                    }
 
-                                String description = "";
-                                if (message.getDescription() != null) {
-                                    description = message.getDescription().getValue();
-                                }
+                    @Override
+                    public void onFailure(Throwable e) {
+                        if (!tooLarge(url, e, feedStats)) {
+                            logger.error("Can not read feed from [{}]: {}", url, e.getMessage());
+                        }
+                        failed("can not read feed: " + e.getMessage());
+                        scheduleNext();
+                    }
+                });
+            } catch (MalformedURLException e) {
+                logger.error("RSS Url is incorrect : [{}].", url);
+                failed("incorrect url");
+                return false;
+            }
+            if (sent) {
+                feedStats.onPoll();
+            } else {
+                // Too many connections to this host, let's try again soon. No request has been sent.
+                if (logger.isDebugEnabled()) logger.debug("Too many connections opened to the host of {}. Delaying poll.", url);
+                hostLimiter.release(host);
+                stats.onDelayedPoll();
+                schedule(jitter(fetcher.getConnectTimeout().millis()));
+            }
+            return true;
+        }
 
-                                // Let's define the rule for UUID generation
-                                String id = UUID.nameUUIDFromBytes(description.getBytes()).toString();
+        /**
+         * Read and process the feed from the server response
+         */
+        private void read(RssFetcher.Response response, long start) {
+            if (response.getStatus() >= 0) {
+                feedStats.onStatus(response.getStatus());
+            }
+            if (response.getStatus() == 429 || response.getStatus() == HttpURLConnection.HTTP_UNAVAILABLE) {
+                // The server asks us to slow down. Let's stop sending requests to it for a while.
+                long now = System.currentTimeMillis();
+                logger.warn("Server [{}] answered [{}] for [{}]. Pausing requests to this host.", host, response.getStatus(), url);
+                hostLimiter.onThrottled(host, RssPollingRate.parseRetryAfter(response.getHeader("Retry-After"), now), now);
+            }
+            feedStats.getFetch().inc(System.currentTimeMillis() - start);
+            // Server hints about when we should come back
+            rate.setRetryAfter(response.getHeader("Retry-After"), System.currentTimeMillis());
+            rate.setCacheControl(response.getHeader("Cache-Control"));
+            if (response.isNotModified()) {
+                if (logger.isDebugEnabled()) logger.debug("Feed {} not modified since last poll... Relaxing...", url);
+                succeeded();
+                rate.onPoll(0);
+                return;
+            }
 
-                                // Let's look if object already exists
-                                GetResponse oldMessage = client.prepareGet(indexName, typeName, id).execute().actionGet();
-                                if (!oldMessage.isExists()) {
-                                    bulkProcessor.add(indexRequest(indexName).type(typeName).id(id).source(toJson(message, riverName.getName(), feedname, raw)));
+            long fetched = start;
+            if (streaming) {
+                // We compress a copy of the body to a spool file to store it once processed
+                RssFeedStore.Spool body = spool();
+                RssStaxFeedReader reader = getStreamingFeed(url, response, feedStats, body);
+                if (reader == null) {
+                    closeSpool(body);
+                    failed("can not read feed");
+                } else {
+                    try {
+                        succeeded();
+                        rate.setSkip(reader.getSkipHours(), reader.getSkipDays());
+                        rate.onPoll(process(response, reader.getPublishedDate(), reader.getTtl(), reader, null, null));
+                        store(response, fetched, body);
+                    } catch (ElasticsearchParseException e) {
+                        if (tooLarge(url, e, feedStats)) {
+                            failed("feed is too large");
+                        } else {
+                            logger.error("Can not parse feed from [{}].", url);
+                            failed("can not parse feed: " + e.getMessage());
+                        }
+                    } finally {
+                        try {
+                            reader.close();
+                        } catch (IOException e) {
+                            // We don't care
+                        }
+                        closeSpool(body);
+                    }
+                }
+            } else {
+                start = System.currentTimeMillis();
+                byte[] body = readBody(url, response, feedStats);
+                if (body == null) {
+                    feedStats.getParse().inc(System.currentTimeMillis() - start);
+                    failed("can not read feed");
+                    return;
+                }
+                // Servers ignoring validators often send again exactly the same content
+                String bodyHash = changeDetection ? RssContentHash.body(body, body.length) : null;
+                if (bodyHash != null && bodyHash.equals(state.getBodyHash())) {
+                    feedStats.getParse().inc(System.currentTimeMillis() - start);
+                    if (logger.isDebugEnabled()) logger.debug("Feed {} content did not change since last poll... Relaxing...", url);
+                    unchanged();
+                    return;
+                }
+                SyndFeed feed = getFeed(url, response, body);
+                feedStats.getParse().inc(System.currentTimeMillis() - start);
+                if (feed == null) {
+                    failed("can not parse feed");
+                } else {
+                    if (logger.isTraceEnabled()) logger.trace("Feed is : {}", feed);
+                    succeeded();
+                    int ttl = -1;
+                    if (feed.originalWireFeed() != null && feed.originalWireFeed() instanceof Channel) {
+                        Channel channel = (Channel) feed.originalWireFeed();
+                        ttl = channel.getTtl();
+                        rate.setSkip(channel.getSkipHours(), channel.getSkipDays());
+                    }
+                    // Or only change their build date
+                    String entriesHash = changeDetection ? RssContentHash.entries(feed.getEntries()) : null;
+                    if (entriesHash != null && entriesHash.equals(state.getEntriesHash())) {
+                        if (logger.isDebugEnabled()) logger.debug("Feed {} entries did not change since last poll... Relaxing...", url);
+                        unchanged();
+                        return;
+                    }
+                    rate.onPoll(process(response, feed.getPublishedDate(), ttl, feed.getEntries().iterator(), bodyHash, entriesHash));
+                    store(response, fetched, body);
+                }
+            }
+        }
 
-                                    if (logger.isDebugEnabled()) logger.debug("FeedMessage update detected for source [{}]", feedname != null ? feedname : "undefined");
-                                    if (logger.isTraceEnabled()) logger.trace("FeedMessage is : {}", message);
-                                } else {
-                                    if (logger.isTraceEnabled()) logger.trace("FeedMessage {} already exist. Ignoring", id);
-                                }
+        /**
+         * We read the feed but its content is the same as on last poll
+         */
+        private void unchanged() {
+            succeeded();
+            feedStats.getUnchanged().inc();
+            rate.onPoll(0);
+        }
+
+        /**
+         * A poll failed. Once the feed failed too many times in a row, we stop polling it for a while.
+         * @param error error message we keep in the feed state
+         */
+        private void failed(String error) {
+            feedStats.onError(error);
+            if (circuitBreaker.onFailure(state, error, System.currentTimeMillis())) {
+                logger.warn("Feed [{}] failed [{}] times in a row. Next try on [{}]", url, state.getFailures(), state.getRetryAt());
+            }
+            writeFailures();
+        }
+
+        /**
+         * We read the feed from the server
+         */
+        private void succeeded() {
+            int failures = state.getFailures();
+            if (circuitBreaker.onSuccess(state)) {
+                if (logger.isInfoEnabled()) logger.info("Feed [{}] can be read again after [{}] failures", url, failures);
+                writeFailures();
+            }
+        }
+
+        /**
+         * Write the failures of the feed in its _river document. Other fields are not modified
+         * as some content may still be waiting for its checkpoint.
+         */
+        private void writeFailures() {
+            try {
+                client.prepareUpdate("_river", riverName.name(), lastupdateField)
+                        .setDoc(state.failuresToXContent())
+                        .setDocAsUpsert(true)
+                        .execute(new ActionListener<UpdateResponse>() {
+                            @Override
+                            public void onResponse(UpdateResponse response) {
                             }
 
-                            if (feedDate == null) {
-                                feedDate = mostRecentItemDate;
+                            @Override
+                            public void onFailure(Throwable e) {
+                                logger.warn("failed to write failures of feed [{}]", e, url);
                             }
+                        });
+            } catch (IOException e) {
+                logger.warn("failed to write failures of feed [{}]", e, url);
+            }
+        }
+
+        /**
+         * Append the feed we read to the store
+         */
+        private void store(RssFetcher.Response response, long fetched, byte[] body) {
+            RssFeedStore store = RssRiver.this.store;
+            if (store == null || body == null || body.length == 0) {
+                return;
+            }
+            try {
+                store.append(url, fetched, response.getContentType(), body, body.length);
+            } catch (IOException e) {
+                logger.warn("failed to store feed [{}]", e, url);
+            }
+        }
+
+        /**
+         * Append the feed we compressed while reading it to the store
+         */
+        private void store(RssFetcher.Response response, long fetched, RssFeedStore.Spool body) {
+            RssFeedStore store = RssRiver.this.store;
+            if (store == null || body == null || body.getLength() == 0) {
+                return;
+            }
+            try {
+                store.append(url, fetched, response.getContentType(), body);
+            } catch (IOException e) {
+                logger.warn("failed to store feed [{}]", e, url);
+            }
+        }
+
+        /**
+         * @return a spool file receiving the body we read or null if we don't store feeds
+         */
+        private RssFeedStore.Spool spool() {
+            RssFeedStore store = RssRiver.this.store;
+            if (store == null) {
+                return null;
+            }
+            try {
+                return store.spool();
+            } catch (IOException e) {
+                logger.warn("failed to store feed [{}]", e, url);
+                return null;
+            }
+        }
 
-                            if (logger.isTraceEnabled()) {
-                                logger.trace("processing [_seq  ]: [{}]/[{}]/[{}], last_seq [{}]", indexName, riverName.name(), lastupdateField, feedDate);
+        private void closeSpool(RssFeedStore.Spool body) {
+            if (body != null) {
+                try {
+                    body.close();
+                } catch (IOException e) {
+                    logger.warn("failed to remove spool file of feed [{}]", e, url);
+                }
+            }
+        }
+
+        /**
+         * Index again all entries of a stored feed. The feed state is neither used nor modified.
+         */
+        private void replay(RssFeedStore.Record record) {
+            try {
+                InputStream is = new ByteArrayInputStream(record.getBody());
+                SyndFeed feed = new SyndFeedInput().build(xmlReader(is, record.getContentType(), false));
+                List<SyndEntry> chunk = new ArrayList<SyndEntry>(MULTI_GET_SIZE);
+                List<Future<?>> chunks = new ArrayList<Future<?>>();
+                for (SyndEntry message : feed.getEntries()) {
+                    feedStats.getEntries().inc();
+                    chunk.add(message);
+                    if (chunk.size() >= MULTI_GET_SIZE) {
+                        chunks.add(submitChunk(chunk, null));
+                        chunk = new ArrayList<SyndEntry>(MULTI_GET_SIZE);
+                    }
+                }
+                indexChunk(chunk, null);
+                awaitChunks(chunks);
+            } catch (IllegalArgumentException e) {
+                logger.warn("Stored feed from [{}] fetched on [{}] is incorrect.", url, new Date(record.getTime()));
+            } catch (FeedException e) {
+                logger.warn("Can not parse stored feed from [{}] fetched on [{}].", url, new Date(record.getTime()));
+            } catch (IOException e) {
+                logger.warn("Can not read stored feed from [{}] fetched on [{}].", e, url, new Date(record.getTime()));
+            }
+        }
+
+        /**
+         * Send new entries of a feed to elasticsearch. The in memory feed state is only
+         * modified once all entries have been sent to the bulk processor.
+         * @param response response we read the feed from
+         * @param feedDate feed published date if any
+         * @param ttl feed ttl in minutes or -1
+         * @param entries feed entries
+         * @param bodyHash hash of the feed body or null
+         * @param entriesHash hash of the feed entries or null
+         * @return number of new entries we found
+         */
+        private int process(RssFetcher.Response response, Date feedDate, int ttl, Iterator<SyndEntry> entries,
+                            String bodyHash, String entriesHash) {
+            long start = System.currentTimeMillis();
+            if (logger.isDebugEnabled()) logger.debug("Reading feed from {}", url);
+            if (logger.isDebugEnabled()) logger.debug("Feed publish date is {}", feedDate);
+
+            Date lastDate = state.getLastUpdated();
+            String etag = response.getHeader("ETag");
+            String lastModified = response.getHeader("Last-Modified");
+            boolean stateChanged = !safeEquals(etag, state.getEtag()) || !safeEquals(lastModified, state.getLastModified()) ||
+                    !safeEquals(bodyHash, state.getBodyHash()) || !safeEquals(entriesHash, state.getEntriesHash());
+            int newEntries = 0;
+
+            // Comparing dates to see if we have something to do or not
+            if (lastDate == null || (feedDate != null && feedDate.after(lastDate))) {
+                // We have to send results to ES
+                if (logger.isTraceEnabled()) logger.trace("Feed {} is updated", url);
+
+                RssCheckpointCoordinator.Checkpoint checkpoint = checkpoints.newCheckpoint(lastupdateField, new Runnable() {
+                    @Override
+                    public void run() {
+                        reloadState();
+                        feedStats.getBulkFailures().inc();
+                    }
+                });
+                try {
+                    // We have now to send each feed to ES
+                    Date mostRecentItemDate = null;
+                    Date lastItemDate = state.getLastItemDate();
+                    Date newLastItemDate = lastItemDate;
+                    Set<String> guids = new LinkedHashSet<String>();
+                    List<SyndEntry> chunk = new ArrayList<SyndEntry>(MULTI_GET_SIZE);
+                    List<Future<?>> chunks = new ArrayList<Future<?>>();
+                    while (entries.hasNext()) {
+                        SyndEntry message = entries.next();
+                        feedStats.getEntries().inc();
+                        // We don't have a global date, so let's see if we have one in items
+                        if (feedDate == null) {
+                            if (message.getUpdatedDate() != null) {
+                                if (lastDate == null || message.getUpdatedDate().after(lastDate)) {
+                                    if (mostRecentItemDate == null || message.getUpdatedDate().after(mostRecentItemDate)) {
+                                        mostRecentItemDate = message.getUpdatedDate();
+                                        if (logger.isTraceEnabled()) logger.trace("No feed date. Using item updated date : {}", feedDate);
+                                    }
+                                }
+                            }
+                            if (message.getPublishedDate() != null) {
+                                if (lastDate == null || message.getPublishedDate().after(lastDate)) {
+                                    if (mostRecentItemDate == null || message.getPublishedDate().after(mostRecentItemDate)) {
+                                        mostRecentItemDate = message.getPublishedDate();
+                                        if (logger.isTraceEnabled()) logger.trace("No feed date. Using item published date : {}", feedDate);
+                                    }
+                                }
                             }
-                            // We store the lastupdate date
-                            bulkProcessor.add(indexRequest("_river").type(riverName.name()).id(lastupdateField)
-                                    .source(jsonBuilder().startObject().startObject("rss").field(lastupdateField, feedDate).endObject().endObject()));
-                        } catch (IOException e) {
-                            logger.warn("failed to add feed message entry to bulk indexing");
                         }
-                    } else {
-                        // Nothing new... Just relax !
-                        if (logger.isDebugEnabled()) logger.debug("Nothing new in the feed... Relaxing...");
+
+                        // Only items newer than the most recent one we know or not in the feed on last poll are processed
+                        String guid = message.getUri() != null ? message.getUri() : message.getLink();
+                        Date itemDate = message.getUpdatedDate();
+                        if (itemDate == null || (message.getPublishedDate() != null && message.getPublishedDate().after(itemDate))) {
+                            itemDate = message.getPublishedDate();
+                        }
+                        boolean newer = itemDate != null && (lastItemDate == null || itemDate.after(lastItemDate));
+                        if (itemDate != null && (newLastItemDate == null || itemDate.after(newLastItemDate))) {
+                            newLastItemDate = itemDate;
+                        }
+                        if (guid != null && guids.size() < guidHistory) {
+                            guids.add(guid);
+                        }
+                        if (!newer && guid != null && state.hasGuid(guid)) {
+                            if (logger.isTraceEnabled()) logger.trace("FeedMessage {} already processed. Ignoring", guid);
+                            feedStats.getSkipped().inc();
+                            continue;
+                        }
+
+                        // We don't keep too many entries in memory
+                        newEntries++;
+                        chunk.add(message);
+                        if (chunk.size() >= MULTI_GET_SIZE) {
+                            chunks.add(submitChunk(chunk, checkpoint));
+                            chunk = new ArrayList<SyndEntry>(MULTI_GET_SIZE);
+                        }
                     }
+                    indexChunk(chunk, checkpoint);
+                    // The checkpoint must not be sealed before all entries have been sent
+                    awaitChunks(chunks);
 
-                    // #8 : Use the ttl rss field to auto adjust feed refresh rate
-                    if (!ignoreTtl && feed.originalWireFeed() != null && feed.originalWireFeed() instanceof Channel) {
-                        Channel channel = (Channel) feed.originalWireFeed();
-                        if (channel.getTtl() > 0) {
-                            int minutes = channel.getTtl();
-                            if (minutes != updateRate.minutes()) {
-                                updateRate = TimeValue.timeValueMinutes(minutes);
-                                if (logger.isInfoEnabled())
-                                    logger.info("Auto adjusting update rate with provided ttl: {}", updateRate);
-                            }
+                    if (feedDate == null) {
+                        feedDate = mostRecentItemDate;
+                    }
+
+                    if (logger.isTraceEnabled()) {
+                        logger.trace("processing [_seq  ]: [{}]/[{}]/[{}], last_seq [{}]", indexName, riverName.name(), lastupdateField, feedDate);
+                    }
+                    if (seenIds != null && logger.isDebugEnabled()) {
+                        logger.debug("Seen ids cache for [{}]: size [{}], hits [{}], misses [{}]",
+                                url, seenIds.size(), seenIds.getHits(), seenIds.getMisses());
+                    }
+
+                    // We store the lastupdate date, the validators and what we have seen in items
+                    state.setLastUpdated(feedDate);
+                    state.setLastItemDate(newLastItemDate);
+                    state.setGuids(guids);
+                    state.setEtag(etag);
+                    state.setLastModified(lastModified);
+                    state.setBodyHash(bodyHash);
+                    state.setEntriesHash(entriesHash);
+                    checkpoint.seal(state.toXContent(lastupdateField));
+                } catch (IOException e) {
+                    logger.warn("failed to add feed message entry to bulk indexing", e);
+                    // Entries we sent must be processed again
+                    checkpoint.discard();
+                } catch (RuntimeException e) {
+                    // Like a feed we can not parse till the end
+                    checkpoint.discard();
+                    throw e;
+                }
+            } else {
+                // Nothing new... Just relax !
+                if (logger.isDebugEnabled()) logger.debug("Nothing new in the feed... Relaxing...");
+                if (stateChanged) {
+                    // The checkpoint is written after the ones of previous polls, as they share the same state
+                    state.setEtag(etag);
+                    state.setLastModified(lastModified);
+                    state.setBodyHash(bodyHash);
+                    state.setEntriesHash(entriesHash);
+                    try {
+                        checkpoints.newCheckpoint(lastupdateField, null).seal(state.toXContent(lastupdateField));
+                    } catch (IOException e) {
+                        logger.warn("failed to add feed state to bulk indexing");
+                    }
+                }
+            }
+
+            // #8 : Use the ttl rss field to auto adjust feed refresh rate
+            if (rate.isAdaptive()) {
+                // We won't poll more often than ttl
+                rate.setTtl(ignoreTtl ? -1 : ttl);
+            } else if (!ignoreTtl && ttl > 0) {
+                if (ttl != rate.getInterval().minutes()) {
+                    rate.setInterval(TimeValue.timeValueMinutes(ttl));
+                    if (logger.isInfoEnabled())
+                        logger.info("Auto adjusting update rate with provided ttl: {}", rate.getInterval());
+                }
+            }
+            if (rate.isAdaptive() && logger.isDebugEnabled()) {
+                logger.debug("Found {} new entries in {}. Update rate is now {}", newEntries, url, rate.getInterval());
+            }
+            feedStats.getProcess().inc(System.currentTimeMillis() - start);
+            return newEntries;
+        }
+
+        /**
+         * Index a chunk of entries using the pipeline threads if any
+         * @return the pending task or null if the chunk has already been indexed
+         */
+        private Future<?> submitChunk(final List<SyndEntry> chunk, final RssCheckpointCoordinator.Checkpoint checkpoint) throws IOException {
+            if (pipeline == null) {
+                indexChunk(chunk, checkpoint);
+                return null;
+            }
+            return pipeline.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    indexChunk(chunk, checkpoint);
+                    return null;
+                }
+            });
+        }
+
+        /**
+         * Wait for all chunks to be indexed. We stop waiting when the river is closed
+         * as chunks submitted while the pipeline shuts down are never run.
+         */
+        private void awaitChunks(List<Future<?>> chunks) throws IOException {
+            for (Future<?> chunk : chunks) {
+                if (chunk == null) {
+                    continue;
+                }
+                try {
+                    while (!awaitChunk(chunk)) {
+                        if (closed) {
+                            chunk.cancel(false);
+                            throw new IOException("river closed while indexing entries of " + url);
                         }
                     }
+                } catch (CancellationException e) {
+                    throw new IOException("river closed while indexing entries of " + url);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while indexing entries of " + url);
+                } catch (ExecutionException e) {
+                    throw new IOException("failed to index entries of " + url, e.getCause());
                 }
+            }
+        }
 
-				try {
-					if (logger.isDebugEnabled()) logger.debug("Rss river is going to sleep for {}", updateRate);
-					Thread.sleep(updateRate.millis());
-				} catch (InterruptedException e1) {
-				}
-			}
-		}
+        /**
+         * @return false if the chunk is still being indexed after a second
+         */
+        private boolean awaitChunk(Future<?> chunk) throws InterruptedException, ExecutionException {
+            try {
+                chunk.get(1, TimeUnit.SECONDS);
+                return true;
+            } catch (TimeoutException e) {
+                return false;
+            }
+        }
 
+        /**
+         * Generate ids for a chunk of entries and index the ones we don't know yet
+         * @param chunk entries
+         * @param checkpoint checkpoint which has to wait for these entries or null when replaying the store
+         */
+        private void indexChunk(List<SyndEntry> chunk, RssCheckpointCoordinator.Checkpoint checkpoint) throws IOException {
+            Map<String, SyndEntry> candidates = new LinkedHashMap<String, SyndEntry>();
+            Map<String, String> legacyCandidates = new HashMap<String, String>();
+            for (SyndEntry message : chunk) {
+                String id = RssDocumentId.id(idStrategy, message);
+                // While migrating, documents indexed with their legacy id must be recognized
+                String legacyId = legacyIds ? RssDocumentId.legacyId(message) : null;
+                if (seenIds != null && seenIds.contains(id, legacyId)) {
+                    if (logger.isTraceEnabled()) logger.trace("FeedMessage {} already seen. Ignoring", id);
+                    feedStats.getDuplicates().inc();
+                } else {
+                    candidates.put(id, message);
+                    if (legacyId != null) {
+                        legacyCandidates.put(id, legacyId);
+                    }
+                }
+            }
+            indexNewEntries(candidates, legacyCandidates, checkpoint);
+        }
+
+        /**
+         * Send to the bulk processor entries which don't exist yet in the index
+         * @param candidates entries by id
+         * @param legacyCandidates legacy ids by id when migrating from legacy ids
+         * @param checkpoint checkpoint which has to wait for these entries or null when replaying the store
+         */
+        private void indexNewEntries(Map<String, SyndEntry> candidates, Map<String, String> legacyCandidates,
+                                     RssCheckpointCoordinator.Checkpoint checkpoint) throws IOException {
+            if (candidates.isEmpty()) {
+                return;
+            }
+
+            // Let's look in one shot which objects already exist
+            Collection<String> ids = candidates.keySet();
+            if (!legacyCandidates.isEmpty()) {
+                ids = new ArrayList<String>(ids);
+                ids.addAll(legacyCandidates.values());
+            }
+            Set<String> existingIds = getExistingIds(ids);
+            for (Map.Entry<String, SyndEntry> candidate : candidates.entrySet()) {
+                String id = candidate.getKey();
+                SyndEntry message = candidate.getValue();
+                if (seenIds != null) {
+                    seenIds.add(id);
+                }
+                String legacyId = legacyCandidates.get(id);
+                if (!existingIds.contains(id) && (legacyId == null || !existingIds.contains(legacyId))) {
+                    IndexRequest request = indexRequest(indexName).type(typeName).id(id)
+                            .source(toBytes(message, riverName.getName(), feedname, raw, contentType), false);
+                    if (checkpoint != null) {
+                        checkpoint.track(request);
+                    }
+                    index(request);
+                    feedStats.getIndexed().inc();
+
+                    if (logger.isDebugEnabled()) logger.debug("FeedMessage update detected for source [{}]", feedname != null ? feedname : "undefined");
+                    if (logger.isTraceEnabled()) logger.trace("FeedMessage is : {}", message);
+                } else {
+                    if (logger.isTraceEnabled()) logger.trace("FeedMessage {} already exist. Ignoring", id);
+                    feedStats.getDuplicates().inc();
+                }
+            }
+        }
+
+        /**
+         * Fill the seen ids cache with the most recent documents we already indexed for this feed
+         */
+        private void warmSeenIds() {
+            if (seenIds == null || feedname == null) return;
+            try {
+                SearchResponse response = client.prepareSearch(indexName).setTypes(typeName)
+                        .setQuery(QueryBuilders.termQuery(RssToJson.Rss.FEEDNAME, feedname))
+                        .addSort(RssToJson.Rss.PUBLISHED_DATE, SortOrder.DESC)
+                        .setSize(seenIds.getMaxSize())
+                        .setNoFields()
+                        .execute().actionGet();
+                // Oldest first so most recent ones are the last to be evicted
+                SearchHit[] hits = response.getHits().getHits();
+                for (int i = hits.length - 1; i >= 0; i--) {
+                    seenIds.add(hits[i].getId());
+                }
+                if (logger.isDebugEnabled()) logger.debug("Seen ids cache for [{}] warmed with [{}] ids", url, seenIds.size());
+            } catch (Exception e) {
+                logger.warn("failed to warm seen ids cache for [{}]", e, url);
+            }
+        }
+
+        /**
+         * Read the feed state from _river. We use a realtime get so we don't need to refresh _river.
+         * @return the feed state or null if we can not read it
+         */
         @SuppressWarnings("unchecked")
-		private Date getLastDateFromRiver(String lastupdateField) {
-            Date lastDate = null;
+		private RssFeedState getStateFromRiver() {
             try {
-                // Do something
-                client.admin().indices().prepareRefresh("_river").execute().actionGet();
                 GetResponse lastSeqGetResponse =
-                        client.prepareGet("_river", riverName().name(), lastupdateField).execute().actionGet();
+                        client.prepareGet("_river", riverName().name(), lastupdateField).setRealtime(true).execute().actionGet();
                 if (lastSeqGetResponse.isExists()) {
                     Map<String, Object> rssState = (Map<String, Object>) lastSeqGetResponse.getSourceAsMap().get("rss");
-
-                    if (rssState != null) {
-                        Object lastupdate = rssState.get(lastupdateField);
-                        if (lastupdate != null) {
-                            String strLastDate = lastupdate.toString();
-                            lastDate = ISODateTimeFormat.dateOptionalTimeParser().parseDateTime(strLastDate).toDate();
-                        }
-                    }
-                } else {
-                    // First call
-                    if (logger.isDebugEnabled()) logger.debug("{} doesn't exist", lastupdateField);
+                    return RssFeedState.fromMap(rssState, lastupdateField);
                 }
+                // First call
+                if (logger.isDebugEnabled()) logger.debug("{} doesn't exist", lastupdateField);
+                return new RssFeedState();
             } catch (Exception e) {
                 logger.warn("failed to get _lastupdate, throttling....", e);
+                return null;
             }
-            return lastDate;
         }
     }
+
+    private static boolean safeEquals(String s1, String s2) {
+        return s1 == null ? s2 == null : s1.equals(s2);
+    }
 }
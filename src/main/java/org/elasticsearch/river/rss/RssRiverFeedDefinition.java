@@ -20,6 +20,9 @@
 package org.elasticsearch.river.rss;
 
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+
+import java.util.Map;
 
 /**
  * Define an RSS Feed with source (aka short name), url and updateRate attributes
@@ -54,4 +57,18 @@ public class RssRiverFeedDefinition {
     public boolean isIgnoreTtl() {
         return ignoreTtl;
     }
+
+    /**
+     * Read a feed definition: name, url, update_rate and ignore_ttl
+     * @param feed feed definition from the river settings or from a feed document
+     * @return the feed definition
+     */
+    public static RssRiverFeedDefinition fromMap(Map<String, Object> feed) {
+        String feedname = XContentMapValues.nodeStringValue(feed.get("name"), null);
+        String url = XContentMapValues.nodeStringValue(feed.get("url"), null);
+        TimeValue updateRate = TimeValue.parseTimeValue(XContentMapValues.nodeStringValue(
+                feed.get("update_rate"), null), TimeValue.timeValueMinutes(15));
+        boolean ignoreTtl = XContentMapValues.nodeBooleanValue(feed.get("ignore_ttl"), false);
+        return new RssRiverFeedDefinition(feedname, url, updateRate, ignoreTtl);
+    }
 }
@@ -0,0 +1,374 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss;
+
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.metrics.MeanMetric;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Statistics of a river and of each of its feeds.
+ */
+public class RssRiverStats implements ToXContent {
+    private final String riverName;
+    private final long started = System.currentTimeMillis();
+
+    private final Timing bulks = new Timing();
+    private final CounterMetric bulkActions = new CounterMetric();
+    private final CounterMetric bulkFailures = new CounterMetric();
+    private final CounterMetric retries = new CounterMetric();
+    private final CounterMetric delayedPolls = new CounterMetric();
+
+    private final Map<String, Feed> feeds = new LinkedHashMap<String, Feed>();
+    private volatile RssBulkThrottle throttle;
+
+    public RssRiverStats(String riverName) {
+        this.riverName = riverName;
+    }
+
+    public String getRiverName() {
+        return riverName;
+    }
+
+    /**
+     * @return statistics of a feed, created if needed
+     */
+    public synchronized Feed feed(String feedname, String url) {
+        Feed feed = feeds.get(url);
+        if (feed == null) {
+            feed = new Feed(feedname, url);
+            feeds.put(url, feed);
+        }
+        return feed;
+    }
+
+    /**
+     * Forget the statistics of a feed which is not polled anymore
+     */
+    public synchronized void remove(String url) {
+        feeds.remove(url);
+    }
+
+    public synchronized List<Feed> getFeeds() {
+        return new ArrayList<Feed>(feeds.values());
+    }
+
+    /**
+     * Used to report pending documents
+     */
+    public void setThrottle(RssBulkThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * A bulk has been executed
+     * @param actions number of documents
+     * @param tookInMillis time it took
+     * @param failures number of failed documents
+     */
+    public void onBulk(int actions, long tookInMillis, int failures) {
+        bulks.inc(tookInMillis);
+        bulkActions.inc(actions);
+        bulkFailures.inc(failures);
+    }
+
+    /**
+     * A whole bulk failed
+     */
+    public void onBulkFailure(int actions) {
+        bulkActions.inc(actions);
+        bulkFailures.inc(actions);
+    }
+
+    public void onRetry() {
+        retries.inc();
+    }
+
+    public void onDelayedPoll() {
+        delayedPolls.inc();
+    }
+
+    public Timing getBulks() {
+        return bulks;
+    }
+
+    public long getBulkFailures() {
+        return bulkFailures.count();
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.field("river", riverName);
+        builder.field("started", new Date(started));
+        builder.field("timestamp", new Date());
+        builder.startObject("bulk");
+        bulks.toXContent(builder);
+        builder.field("actions", bulkActions.count());
+        builder.field("failures", bulkFailures.count());
+        builder.field("retries", retries.count());
+        RssBulkThrottle throttle = this.throttle;
+        if (throttle != null) {
+            builder.field("pending_actions", throttle.getPendingActions());
+            builder.byteSizeField("pending_bytes_in_bytes", "pending_bytes", new ByteSizeValue(throttle.getPendingBytes()));
+        }
+        builder.field("delayed_polls", delayedPolls.count());
+        builder.endObject();
+        builder.startArray("feeds");
+        for (Feed feed : getFeeds()) {
+            builder.startObject();
+            feed.toXContent(builder, params);
+            builder.endObject();
+        }
+        builder.endArray();
+        return builder;
+    }
+
+    /**
+     * Count, total, average and max time of an operation
+     */
+    public static class Timing {
+        private final MeanMetric metric = new MeanMetric();
+        private volatile long max = 0;
+
+        public void inc(long millis) {
+            metric.inc(millis);
+            synchronized (this) {
+                if (millis > max) {
+                    max = millis;
+                }
+            }
+        }
+
+        public long count() {
+            return metric.count();
+        }
+
+        public long sum() {
+            return metric.sum();
+        }
+
+        public long max() {
+            return max;
+        }
+
+        void toXContent(XContentBuilder builder) throws IOException {
+            builder.field("count", metric.count());
+            builder.field("total_time_in_millis", metric.sum());
+            builder.field("avg_time_in_millis", (long) metric.mean());
+            builder.field("max_time_in_millis", max);
+        }
+    }
+
+    /**
+     * Statistics of a single feed
+     */
+    public static class Feed implements ToXContent {
+        private final String feedname;
+        private final String url;
+
+        private final CounterMetric polls = new CounterMetric();
+        private final CounterMetric errors = new CounterMetric();
+        private final CounterMetric unchanged = new CounterMetric();
+        private final Timing fetch = new Timing();
+        private final Timing parse = new Timing();
+        private final Timing process = new Timing();
+        private final CounterMetric bytes = new CounterMetric();
+        private final CounterMetric tooLarge = new CounterMetric();
+        private final Map<Integer, CounterMetric> statuses = new TreeMap<Integer, CounterMetric>();
+        private final CounterMetric entries = new CounterMetric();
+        private final CounterMetric skipped = new CounterMetric();
+        private final CounterMetric duplicates = new CounterMetric();
+        private final CounterMetric indexed = new CounterMetric();
+        private final CounterMetric bulkFailures = new CounterMetric();
+        private volatile long lastPoll = 0;
+        private volatile String lastError;
+        private volatile RssSeenIdCache seenIds;
+
+        private Feed(String feedname, String url) {
+            this.feedname = feedname;
+            this.url = url;
+        }
+
+        public void onPoll() {
+            polls.inc();
+            lastPoll = System.currentTimeMillis();
+        }
+
+        public void onError(String message) {
+            errors.inc();
+            lastError = message;
+        }
+
+        /**
+         * Used to report the seen ids cache of the feed
+         */
+        public void setSeenIds(RssSeenIdCache seenIds) {
+            this.seenIds = seenIds;
+        }
+
+        public synchronized void onStatus(int status) {
+            CounterMetric counter = statuses.get(status);
+            if (counter == null) {
+                counter = new CounterMetric();
+                statuses.put(status, counter);
+            }
+            counter.inc();
+        }
+
+        /**
+         * Polls whose content was the same as on previous poll
+         */
+        public CounterMetric getUnchanged() {
+            return unchanged;
+        }
+
+        /**
+         * Time to connect and get response headers
+         */
+        public Timing getFetch() {
+            return fetch;
+        }
+
+        /**
+         * Time to read and parse the feed (streaming mode reads the feed while processing it)
+         */
+        public Timing getParse() {
+            return parse;
+        }
+
+        /**
+         * Time to deduplicate and send entries to the bulk processor
+         */
+        public Timing getProcess() {
+            return process;
+        }
+
+        /**
+         * Bytes read from the feed
+         */
+        public CounterMetric getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Feeds we did not read because they were too big
+         */
+        public CounterMetric getTooLarge() {
+            return tooLarge;
+        }
+
+        /**
+         * Entries read from the feed
+         */
+        public CounterMetric getEntries() {
+            return entries;
+        }
+
+        /**
+         * Entries already processed on a previous poll
+         */
+        public CounterMetric getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * Entries already indexed
+         */
+        public CounterMetric getDuplicates() {
+            return duplicates;
+        }
+
+        /**
+         * Entries sent to the bulk processor
+         */
+        public CounterMetric getIndexed() {
+            return indexed;
+        }
+
+        /**
+         * Polls whose documents could not be indexed
+         */
+        public CounterMetric getBulkFailures() {
+            return bulkFailures;
+        }
+
+        @Override
+        public synchronized XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.field("name", feedname);
+            builder.field("url", url);
+            builder.field("polls", polls.count());
+            builder.field("errors", errors.count());
+            builder.field("unchanged", unchanged.count());
+            if (lastPoll > 0) {
+                builder.field("last_poll", new Date(lastPoll));
+            }
+            if (lastError != null) {
+                builder.field("last_error", lastError);
+            }
+            builder.startObject("status");
+            for (Map.Entry<Integer, CounterMetric> status : statuses.entrySet()) {
+                builder.field(String.valueOf(status.getKey()), status.getValue().count());
+            }
+            builder.endObject();
+            builder.startObject("fetch");
+            fetch.toXContent(builder);
+            builder.byteSizeField("bytes_in_bytes", "bytes", new ByteSizeValue(bytes.count()));
+            builder.field("too_large", tooLarge.count());
+            builder.endObject();
+            builder.startObject("parse");
+            parse.toXContent(builder);
+            builder.endObject();
+            builder.startObject("process");
+            process.toXContent(builder);
+            builder.endObject();
+            builder.startObject("entries");
+            builder.field("total", entries.count());
+            builder.field("skipped", skipped.count());
+            builder.field("duplicates", duplicates.count());
+            builder.field("indexed", indexed.count());
+            long seconds = process.sum() / 1000;
+            if (seconds > 0) {
+                builder.field("indexed_per_second", indexed.count() / seconds);
+            }
+            builder.endObject();
+            RssSeenIdCache seenIds = this.seenIds;
+            if (seenIds != null) {
+                builder.startObject("seen_ids");
+                builder.field("size", seenIds.size());
+                builder.field("max_size", seenIds.getMaxSize());
+                builder.field("hits", seenIds.getHits());
+                builder.field("misses", seenIds.getMisses());
+                builder.endObject();
+            }
+            builder.field("bulk_failures", bulkFailures.count());
+            return builder;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss;
+
+import org.elasticsearch.common.metrics.CounterMetric;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of document ids we know are already indexed for a feed.
+ * When the cache is full, least recently seen ids are evicted.
+ */
+public class RssSeenIdCache {
+    private final int maxSize;
+    private final Map<String, Boolean> ids;
+
+    private final CounterMetric hits = new CounterMetric();
+    private final CounterMetric misses = new CounterMetric();
+
+    public RssSeenIdCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.ids = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > RssSeenIdCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * @param id document id
+     * @return true if the id has already been seen
+     */
+    public boolean contains(String id) {
+        return contains(id, null);
+    }
+
+    /**
+     * A document may have been indexed with another id (its legacy id). Looking for both counts
+     * as a single hit or miss.
+     * @param id document id
+     * @param otherId other id of the document or null
+     * @return true if one of the ids has already been seen
+     */
+    public synchronized boolean contains(String id, String otherId) {
+        if (ids.get(id) != null || (otherId != null && ids.get(otherId) != null)) {
+            hits.inc();
+            return true;
+        }
+        misses.inc();
+        return false;
+    }
+
+    public synchronized void add(String id) {
+        ids.put(id, Boolean.TRUE);
+    }
+
+    public synchronized void remove(String id) {
+        ids.remove(id);
+    }
+
+    public synchronized int size() {
+        return ids.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHits() {
+        return hits.count();
+    }
+
+    public long getMisses() {
+        return misses.count();
+    }
+}
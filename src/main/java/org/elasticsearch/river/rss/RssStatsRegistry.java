@@ -0,0 +1,53 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss;
+
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Node level registry of the statistics of rss rivers running on this node.
+ */
+public class RssStatsRegistry {
+    private final ConcurrentMap<String, RssRiverStats> rivers = ConcurrentCollections.newConcurrentMap();
+
+    public void register(RssRiverStats stats) {
+        rivers.put(stats.getRiverName(), stats);
+    }
+
+    public void unregister(RssRiverStats stats) {
+        rivers.remove(stats.getRiverName(), stats);
+    }
+
+    /**
+     * @param riverName river name
+     * @return river statistics or null if the river is not running on this node
+     */
+    public RssRiverStats get(String riverName) {
+        return rivers.get(riverName);
+    }
+
+    public Collection<RssRiverStats> all() {
+        return new ArrayList<RssRiverStats>(rivers.values());
+    }
+}
@@ -0,0 +1,605 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss;
+
+import com.rometools.modules.georss.GeoRSSModule;
+import com.rometools.modules.georss.SimpleModuleImpl;
+import com.rometools.modules.georss.W3CGeoModuleImpl;
+import com.rometools.modules.georss.geometries.Position;
+import com.rometools.modules.mediarss.MediaEntryModuleImpl;
+import com.rometools.modules.mediarss.types.MediaContent;
+import com.rometools.modules.mediarss.types.Metadata;
+import com.rometools.modules.mediarss.types.PlayerReference;
+import com.rometools.modules.mediarss.types.Reference;
+import com.rometools.modules.mediarss.types.UrlReference;
+import com.rometools.rome.feed.module.Module;
+import com.rometools.rome.feed.synd.SyndCategory;
+import com.rometools.rome.feed.synd.SyndCategoryImpl;
+import com.rometools.rome.feed.synd.SyndContent;
+import com.rometools.rome.feed.synd.SyndContentImpl;
+import com.rometools.rome.feed.synd.SyndEnclosure;
+import com.rometools.rome.feed.synd.SyndEnclosureImpl;
+import com.rometools.rome.feed.synd.SyndEntry;
+import com.rometools.rome.feed.synd.SyndEntryImpl;
+import com.rometools.rome.feed.synd.SyndFeedImpl;
+import com.rometools.rome.io.impl.DateParser;
+import org.elasticsearch.ElasticsearchParseException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+/**
+ * Read RSS (0.9x, 1.0, 2.0) and Atom feeds entry by entry with StAX, without building the whole
+ * feed in memory as {@link com.rometools.rome.io.SyndFeedInput} does.
+ * <br>
+ * Feed level information (published date, ttl, skip hours and days) is read when the reader is created, so it must
+ * appear in the document before the first entry. Only fields used by {@link RssToJson} are read.
+ */
+public class RssStaxFeedReader implements Iterator<SyndEntry>, Closeable {
+    private static final String ATOM_NS = "http://www.w3.org/2005/Atom";
+    private static final String RSS_090_NS = "http://my.netscape.com/rdf/simple/0.9/";
+    private static final String RSS_10_NS = "http://purl.org/rss/1.0/";
+    private static final String CONTENT_NS = "http://purl.org/rss/1.0/modules/content/";
+    private static final String DC_NS = "http://purl.org/dc/elements/1.1/";
+    private static final String MEDIA_NS = "http://search.yahoo.com/mrss/";
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+    static {
+        FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private final Reader reader;
+    private final XMLStreamReader xml;
+
+    private Date publishedDate;
+    private int ttl = -1;
+    private final List<Integer> skipHours = new ArrayList<Integer>();
+    private final List<String> skipDays = new ArrayList<String>();
+    private boolean mediaDeclared = false;
+
+    private boolean positioned = false;
+    private boolean finished = false;
+
+    /**
+     * Create a reader and read feed level information
+     * @param reader feed content. Use a {@link com.rometools.rome.io.XmlReader} to detect encoding.
+     */
+    public RssStaxFeedReader(Reader reader) throws XMLStreamException {
+        this.reader = reader;
+        this.xml = FACTORY.createXMLStreamReader(reader);
+        readHeader();
+    }
+
+    /**
+     * @return Feed published date (pubDate, lastBuildDate or dc:date for RSS, updated for Atom)
+     */
+    public Date getPublishedDate() {
+        return publishedDate;
+    }
+
+    /**
+     * @return Feed ttl in minutes or -1 if not provided
+     */
+    public int getTtl() {
+        return ttl;
+    }
+
+    /**
+     * @return Hours (GMT, 0-23) the feed should not be read
+     */
+    public List<Integer> getSkipHours() {
+        return skipHours;
+    }
+
+    /**
+     * @return Days (Monday, Tuesday...) the feed should not be read
+     */
+    public List<String> getSkipDays() {
+        return skipDays;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!positioned && !finished) {
+            try {
+                moveToNextEntry();
+            } catch (XMLStreamException e) {
+                throw new ElasticsearchParseException("Can not read feed", e);
+            }
+        }
+        return positioned;
+    }
+
+    @Override
+    public SyndEntry next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        positioned = false;
+        try {
+            return readEntry();
+        } catch (XMLStreamException e) {
+            throw new ElasticsearchParseException("Can not read feed entry", e);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            xml.close();
+        } catch (XMLStreamException e) {
+            // We don't care
+        }
+        reader.close();
+    }
+
+    private void readHeader() throws XMLStreamException {
+        boolean root = true;
+        Date lastBuildDate = null;
+        Date dcDate = null;
+        while (xml.hasNext()) {
+            if (xml.next() != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+
+            if (root) {
+                for (int i = 0; i < xml.getNamespaceCount(); i++) {
+                    if (MEDIA_NS.equals(xml.getNamespaceURI(i))) {
+                        mediaDeclared = true;
+                    }
+                }
+                root = false;
+                continue;
+            }
+
+            if (isEntry()) {
+                positioned = true;
+                break;
+            }
+
+            String ns = xml.getNamespaceURI();
+            String name = xml.getLocalName();
+            if (isRss(ns) && "pubDate".equals(name)) {
+                publishedDate = parseDate(readText());
+            } else if (isRss(ns) && "lastBuildDate".equals(name)) {
+                lastBuildDate = parseDate(readText());
+            } else if (DC_NS.equals(ns) && "date".equals(name)) {
+                dcDate = parseDate(readText());
+            } else if (ATOM_NS.equals(ns) && "updated".equals(name)) {
+                publishedDate = parseDate(readText());
+            } else if (isRss(ns) && "ttl".equals(name)) {
+                try {
+                    ttl = Integer.parseInt(readText().trim());
+                } catch (NumberFormatException e) {
+                    ttl = -1;
+                }
+            } else if (isRss(ns) && "hour".equals(name)) {
+                try {
+                    skipHours.add(Integer.parseInt(readText().trim()));
+                } catch (NumberFormatException e) {
+                    // Ignoring it
+                }
+            } else if (isRss(ns) && "day".equals(name)) {
+                skipDays.add(readText().trim());
+            }
+        }
+        finished = !positioned;
+
+        // Like Rome does, we fall back to lastBuildDate or dc:date
+        if (publishedDate == null) {
+            publishedDate = lastBuildDate != null ? lastBuildDate : dcDate;
+        }
+    }
+
+    private void moveToNextEntry() throws XMLStreamException {
+        while (xml.hasNext()) {
+            if (xml.next() == XMLStreamConstants.START_ELEMENT && isEntry()) {
+                positioned = true;
+                return;
+            }
+        }
+        finished = true;
+    }
+
+    private boolean isEntry() {
+        String ns = xml.getNamespaceURI();
+        String name = xml.getLocalName();
+        return (isRss(ns) && "item".equals(name)) || (ATOM_NS.equals(ns) && "entry".equals(name));
+    }
+
+    private static boolean isRss(String ns) {
+        return ns == null || ns.length() == 0 || RSS_10_NS.equals(ns) || RSS_090_NS.equals(ns);
+    }
+
+    /**
+     * Read an entry. Current event must be the entry start element. Each child element is
+     * fully consumed so we stop on the entry end element.
+     */
+    private SyndEntry readEntry() throws XMLStreamException {
+        SyndEntryImpl entry = new SyndEntryImpl();
+        List<SyndCategory> categories = new ArrayList<SyndCategory>();
+        List<SyndEnclosure> enclosures = new ArrayList<SyndEnclosure>();
+        List<SyndContent> contents = new ArrayList<SyndContent>();
+        List<MediaContent> mediaContents = new ArrayList<MediaContent>();
+        String guid = null;
+        String author = null;
+        Double lat = null;
+        Double lon = null;
+        GeoRSSModule geoRSSModule = null;
+
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+
+            String ns = xml.getNamespaceURI();
+            String name = xml.getLocalName();
+
+            if (isRss(ns)) {
+                if ("title".equals(name)) {
+                    entry.setTitle(readText());
+                } else if ("link".equals(name)) {
+                    entry.setLink(readText().trim());
+                } else if ("description".equals(name)) {
+                    entry.setDescription(content("text/html", readText()));
+                } else if ("author".equals(name)) {
+                    author = readText();
+                } else if ("pubDate".equals(name)) {
+                    entry.setPublishedDate(parseDate(readText()));
+                } else if ("guid".equals(name)) {
+                    guid = readText().trim();
+                } else if ("category".equals(name)) {
+                    String domain = xml.getAttributeValue(null, "domain");
+                    categories.add(category(readText(), domain));
+                } else if ("enclosure".equals(name)) {
+                    enclosures.add(enclosure(xml.getAttributeValue(null, "url"),
+                            xml.getAttributeValue(null, "type"), xml.getAttributeValue(null, "length")));
+                    skipElement();
+                } else if ("source".equals(name)) {
+                    SyndFeedImpl source = new SyndFeedImpl();
+                    source.setLink(xml.getAttributeValue(null, "url"));
+                    source.setTitle(readText());
+                    entry.setSource(source);
+                } else {
+                    skipElement();
+                }
+            } else if (ATOM_NS.equals(ns)) {
+                if ("title".equals(name)) {
+                    entry.setTitle(readText());
+                } else if ("link".equals(name)) {
+                    String rel = xml.getAttributeValue(null, "rel");
+                    if (rel == null || "alternate".equals(rel)) {
+                        if (entry.getLink() == null) {
+                            entry.setLink(xml.getAttributeValue(null, "href"));
+                        }
+                    } else if ("enclosure".equals(rel)) {
+                        enclosures.add(enclosure(xml.getAttributeValue(null, "href"),
+                                xml.getAttributeValue(null, "type"), xml.getAttributeValue(null, "length")));
+                    }
+                    skipElement();
+                } else if ("summary".equals(name)) {
+                    entry.setDescription(content(xml.getAttributeValue(null, "type"), readText()));
+                } else if ("content".equals(name)) {
+                    String type = xml.getAttributeValue(null, "type");
+                    contents.add(content(type != null ? type : "text", readText()));
+                } else if ("author".equals(name)) {
+                    author = readAtomAuthor();
+                } else if ("published".equals(name)) {
+                    entry.setPublishedDate(parseDate(readText()));
+                } else if ("updated".equals(name)) {
+                    entry.setUpdatedDate(parseDate(readText()));
+                } else if ("id".equals(name)) {
+                    guid = readText().trim();
+                } else if ("category".equals(name)) {
+                    categories.add(category(xml.getAttributeValue(null, "term"), xml.getAttributeValue(null, "scheme")));
+                    skipElement();
+                } else {
+                    skipElement();
+                }
+            } else if (CONTENT_NS.equals(ns) && "encoded".equals(name)) {
+                contents.add(content("html", readText()));
+            } else if (DC_NS.equals(ns)) {
+                if ("creator".equals(name)) {
+                    String creator = readText();
+                    if (author == null) {
+                        author = creator;
+                    }
+                } else if ("date".equals(name)) {
+                    Date date = parseDate(readText());
+                    if (entry.getPublishedDate() == null) {
+                        entry.setPublishedDate(date);
+                    }
+                } else if ("subject".equals(name)) {
+                    categories.add(category(readText(), null));
+                } else {
+                    skipElement();
+                }
+            } else if (GeoRSSModule.GEORSS_W3CGEO_URI.equals(ns)) {
+                if ("lat".equals(name)) {
+                    lat = parseDouble(readText());
+                } else if ("long".equals(name)) {
+                    lon = parseDouble(readText());
+                } else if ("Point".equals(name)) {
+                    double[] point = readW3CGeoPoint();
+                    lat = Double.isNaN(point[0]) ? lat : point[0];
+                    lon = Double.isNaN(point[1]) ? lon : point[1];
+                } else {
+                    skipElement();
+                }
+            } else if (GeoRSSModule.GEORSS_GEORSS_URI.equals(ns) && "point".equals(name)) {
+                String[] point = readText().trim().split("\\s+");
+                if (point.length == 2) {
+                    Double pointLat = parseDouble(point[0]);
+                    Double pointLon = parseDouble(point[1]);
+                    if (pointLat != null && pointLon != null) {
+                        geoRSSModule = new SimpleModuleImpl();
+                        geoRSSModule.setPosition(new Position(pointLat, pointLon));
+                    }
+                }
+            } else if (MEDIA_NS.equals(ns) && "content".equals(name)) {
+                MediaContent mediaContent = readMediaContent();
+                if (mediaContent != null) {
+                    mediaContents.add(mediaContent);
+                }
+            } else {
+                skipElement();
+            }
+        }
+
+        entry.setAuthor(author);
+        // Like Rome does, we use the link when no guid is provided
+        entry.setUri(guid != null ? guid : entry.getLink());
+        entry.setCategories(categories);
+        entry.setEnclosures(enclosures);
+        entry.setContents(contents);
+
+        List<Module> modules = new ArrayList<Module>(entry.getModules());
+        if (geoRSSModule == null && lat != null && lon != null) {
+            geoRSSModule = new W3CGeoModuleImpl();
+            geoRSSModule.setPosition(new Position(lat, lon));
+        }
+        if (geoRSSModule != null) {
+            modules.add(geoRSSModule);
+        }
+        if (mediaDeclared || !mediaContents.isEmpty()) {
+            MediaEntryModuleImpl mediaEntryModule = new MediaEntryModuleImpl();
+            mediaEntryModule.setMediaContents(mediaContents.toArray(new MediaContent[mediaContents.size()]));
+            modules.add(mediaEntryModule);
+        }
+        entry.setModules(modules);
+
+        return entry;
+    }
+
+    private String readAtomAuthor() throws XMLStreamException {
+        String author = null;
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (ATOM_NS.equals(xml.getNamespaceURI()) && "name".equals(xml.getLocalName())) {
+                    author = readText();
+                } else {
+                    skipElement();
+                }
+            }
+        }
+        return author;
+    }
+
+    private double[] readW3CGeoPoint() throws XMLStreamException {
+        double[] point = new double[] { Double.NaN, Double.NaN };
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = xml.getLocalName();
+                Double value = null;
+                if ("lat".equals(name) || "long".equals(name)) {
+                    value = parseDouble(readText());
+                } else {
+                    skipElement();
+                }
+                if (value != null) {
+                    point["lat".equals(name) ? 0 : 1] = value;
+                }
+            }
+        }
+        return point;
+    }
+
+    private MediaContent readMediaContent() throws XMLStreamException {
+        String url = xml.getAttributeValue(null, "url");
+        String type = xml.getAttributeValue(null, "type");
+        String duration = xml.getAttributeValue(null, "duration");
+        String width = xml.getAttributeValue(null, "width");
+        String height = xml.getAttributeValue(null, "height");
+        String language = xml.getAttributeValue(null, "lang");
+        String playerUrl = null;
+        Metadata metadata = new Metadata();
+
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = xml.getLocalName();
+                if (MEDIA_NS.equals(xml.getNamespaceURI()) && "title".equals(name)) {
+                    metadata.setTitle(readText());
+                } else if (MEDIA_NS.equals(xml.getNamespaceURI()) && "description".equals(name)) {
+                    metadata.setDescription(readText());
+                } else if (MEDIA_NS.equals(xml.getNamespaceURI()) && "player".equals(name)) {
+                    playerUrl = xml.getAttributeValue(null, "url");
+                    skipElement();
+                } else {
+                    skipElement();
+                }
+            }
+        }
+
+        Reference reference;
+        try {
+            if (url != null) {
+                reference = new UrlReference(new URI(url.trim()));
+            } else if (playerUrl != null) {
+                reference = new PlayerReference(new URI(playerUrl.trim()));
+            } else {
+                return null;
+            }
+        } catch (URISyntaxException e) {
+            return null;
+        }
+
+        MediaContent mediaContent = new MediaContent(reference);
+        mediaContent.setType(type);
+        mediaContent.setLanguage(language);
+        mediaContent.setMetadata(metadata);
+        Long durationValue = parseLong(duration);
+        if (durationValue != null) {
+            mediaContent.setDuration(durationValue);
+        }
+        Long widthValue = parseLong(width);
+        if (widthValue != null) {
+            mediaContent.setWidth(widthValue.intValue());
+        }
+        Long heightValue = parseLong(height);
+        if (heightValue != null) {
+            mediaContent.setHeight(heightValue.intValue());
+        }
+        return mediaContent;
+    }
+
+    /**
+     * Read all text of current element and its children (markup is dropped) up to its end element
+     */
+    private String readText() throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        int depth = 1;
+        while (depth > 0 && xml.hasNext()) {
+            int event = xml.next();
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    text.append(xml.getTextCharacters(), xml.getTextStart(), xml.getTextLength());
+                    break;
+                default:
+                    break;
+            }
+        }
+        return text.toString();
+    }
+
+    private void skipElement() throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static SyndContent content(String type, String value) {
+        SyndContentImpl content = new SyndContentImpl();
+        content.setType(type);
+        content.setValue(value);
+        return content;
+    }
+
+    private static SyndCategory category(String name, String taxonomyUri) {
+        SyndCategoryImpl category = new SyndCategoryImpl();
+        category.setName(name);
+        category.setTaxonomyUri(taxonomyUri);
+        return category;
+    }
+
+    private static SyndEnclosure enclosure(String url, String type, String length) {
+        SyndEnclosureImpl enclosure = new SyndEnclosureImpl();
+        enclosure.setUrl(url);
+        enclosure.setType(type);
+        Long lengthValue = parseLong(length);
+        if (lengthValue != null) {
+            enclosure.setLength(lengthValue);
+        }
+        return enclosure;
+    }
+
+    private static Date parseDate(String date) {
+        return date == null ? null : DateParser.parseDate(date.trim(), Locale.US);
+    }
+
+    private static Double parseDouble(String value) {
+        if (value == null) return null;
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Long parseLong(String value) {
+        if (value == null) return null;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
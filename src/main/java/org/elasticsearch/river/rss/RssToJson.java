@@ -30,7 +30,10 @@ import com.rometools.rome.feed.synd.SyndCategory;
 import com.rometools.rome.feed.synd.SyndContentImpl;
 import com.rometools.rome.feed.synd.SyndEnclosure;
 import com.rometools.rome.feed.synd.SyndEntry;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentType;
 
 import java.io.IOException;
 import java.net.URI;
@@ -79,8 +82,44 @@ public class RssToJson {
         }
     }
 
+    /**
+     * Buffers reused by each thread to serialize entries. Bigger buffers are not kept.
+     */
+    private static final int MAX_REUSED_BUFFER_SIZE = 1024 * 1024;
+    private static final ThreadLocal<BytesStreamOutput> BUFFERS = new ThreadLocal<BytesStreamOutput>() {
+        @Override
+        protected BytesStreamOutput initialValue() {
+            return new BytesStreamOutput();
+        }
+    };
+
 	public static XContentBuilder toJson(SyndEntry message, String riverName, String feedname, boolean raw) throws IOException {
-        XContentBuilder out = jsonBuilder()
+        return toXContent(jsonBuilder(), message, riverName, feedname, raw);
+    }
+
+    /**
+     * Serialize an entry in a buffer reused by the current thread and copy the result
+     * @param contentType content type to generate (JSON, SMILE...)
+     * @return serialized entry, ready to be used as an index request source
+     */
+    public static BytesReference toBytes(SyndEntry message, String riverName, String feedname, boolean raw,
+                                         XContentType contentType) throws IOException {
+        BytesStreamOutput buffer = BUFFERS.get();
+        buffer.reset();
+        XContentBuilder out = new XContentBuilder(contentType.xContent(), buffer);
+        toXContent(out, message, riverName, feedname, raw);
+        out.close();
+
+        BytesReference bytes = buffer.bytes().copyBytesArray();
+        if (buffer.size() > MAX_REUSED_BUFFER_SIZE) {
+            BUFFERS.remove();
+        }
+        return bytes;
+    }
+
+    private static XContentBuilder toXContent(XContentBuilder out, SyndEntry message, String riverName, String feedname,
+                                              boolean raw) throws IOException {
+        out
 	    	.startObject()
 	    		.field(Rss.FEEDNAME, feedname)
 	    		.field(Rss.TITLE, message.getTitle())
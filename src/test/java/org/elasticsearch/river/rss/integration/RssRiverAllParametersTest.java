@@ -19,29 +19,46 @@
 
 package org.elasticsearch.river.rss.integration;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import org.elasticsearch.action.count.CountResponse;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.common.base.Predicate;
+import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.river.rss.RestRssStatsAction;
+import org.elasticsearch.river.rss.RssFeedState;
 import org.elasticsearch.river.rss.RssToJson;
+import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.test.ElasticsearchIntegrationTest;
 import org.junit.After;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
 
 /**
@@ -50,6 +67,11 @@ import static org.hamcrest.Matchers.notNullValue;
 @ElasticsearchIntegrationTest.ClusterScope(scope = ElasticsearchIntegrationTest.Scope.SUITE)
 public class RssRiverAllParametersTest extends ElasticsearchIntegrationTest {
 
+    // Last-Modified header and date of each version of the local HTTP feed
+    private static final String[] LAST_MODIFIED = new String[] {
+            "Mon, 01 Dec 2014 12:00:00 GMT", "Tue, 02 Dec 2014 12:00:00 GMT"
+    };
+
     private XContentBuilder createRiver(boolean raw, String... names) throws IOException {
         XContentBuilder river = jsonBuilder().prettyPrint().startObject()
                 .field("type", "rss")
@@ -78,6 +100,232 @@ public class RssRiverAllParametersTest extends ElasticsearchIntegrationTest {
         return river;
     }
 
+    /**
+     * River reading feed documents every second
+     * @param names feeds defined in _meta
+     */
+    private XContentBuilder createRiverWithFeedDocuments(String... names) throws IOException {
+        XContentBuilder river = jsonBuilder().prettyPrint().startObject()
+                .field("type", "rss")
+                .startObject("rss")
+                    .field("feeds_refresh_interval", "1s")
+                    .field("stats_interval", "1s");
+
+        if (names.length > 0) {
+            river.startArray("feeds");
+            for (String name : names) {
+                addLocalRiver(river, name);
+            }
+            river.endArray();
+        }
+
+        river.endObject()
+                .startObject("index")
+                    .field("flush_interval", "500ms")
+                .endObject()
+                .endObject();
+
+        logger.info("  --> river meant to be created: {}", river.string());
+
+        return river;
+    }
+
+    /**
+     * Add or modify a feed document
+     * @param riverName river name
+     * @param name feed name
+     * @param dir directory of the local feed
+     */
+    private void indexFeedDocument(String riverName, String name, String dir) throws IOException {
+        logger.info("  --> indexing feed document [{}] in river [{}]", name, riverName);
+        index("_river", riverName, "feed_" + dir, jsonBuilder().startObject()
+                .startObject("feed")
+                    .field("name", name)
+                    .field("url", getUrl(dir + File.separator + "rss.xml"))
+                    .field("update_rate", 10000)
+                .endObject()
+                .endObject());
+        refresh();
+    }
+
+    /**
+     * Wait for river statistics to show the feed with this name, or not to show it anymore
+     * @param riverName river name
+     * @param dir directory of the local feed
+     * @param name expected feed name or null if the feed should be stopped
+     */
+    private void waitForFeed(final String riverName, String dir, final String name) throws IOException, InterruptedException {
+        final String url = getUrl(dir + File.separator + "rss.xml");
+        assertThat("Feed [" + url + "] should be polled as [" + name + "]", awaitBusy(new Predicate<Object>() {
+            @Override
+            public boolean apply(Object o) {
+                if (!client().prepareGet("_river", riverName, RestRssStatsAction.STATS_ID).execute().actionGet().isExists()) {
+                    return false;
+                }
+                Map<String, Object> feed = getFeedStats(riverName, url);
+                String feedname = feed != null ? (String) feed.get("name") : null;
+                return name == null ? feedname == null : name.equals(feedname);
+            }
+        }, 10, TimeUnit.SECONDS), equalTo(true));
+    }
+
+    /**
+     * @return statistics of a feed written by the river or null
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> getFeedStats(String riverName, String url) {
+        GetResponse getResponse = client().prepareGet("_river", riverName, RestRssStatsAction.STATS_ID)
+                .execute().actionGet();
+        if (!getResponse.isExists()) {
+            return null;
+        }
+        List<Map<String, Object>> feeds = (List<Map<String, Object>>) getResponse.getSourceAsMap().get("feeds");
+        for (Map<String, Object> feed : feeds) {
+            if (url.equals(feed.get("url"))) {
+                return feed;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Wait for a statistic of a feed to reach a value
+     * @param path path of the statistic in the feed statistics, like "entries.indexed"
+     */
+    private void waitForFeedStats(final String riverName, final String url, final String path, final long min) throws InterruptedException {
+        assertThat("Statistic [" + path + "] of feed [" + url + "] should reach [" + min + "]", awaitBusy(new Predicate<Object>() {
+            @Override
+            public boolean apply(Object o) {
+                Map<String, Object> feed = getFeedStats(riverName, url);
+                Object value = feed != null ? XContentMapValues.extractValue(path, feed) : null;
+                return value != null && ((Number) value).longValue() >= min;
+            }
+        }, 10, TimeUnit.SECONDS), equalTo(true));
+    }
+
+    /**
+     * River polling a feed served by {@link FeedServer} every second, without seen ids cache
+     * so existing documents are always looked up in the index
+     */
+    private XContentBuilder createHttpRiver(String url) throws IOException {
+        return createHttpRiver(url, new HashMap<String, Object>());
+    }
+
+    /**
+     * @param rssSettings other settings of the "rss" object
+     */
+    private XContentBuilder createHttpRiver(String url, Map<String, Object> rssSettings) throws IOException {
+        XContentBuilder river = jsonBuilder().prettyPrint().startObject()
+                .field("type", "rss")
+                .startObject("rss")
+                    .field("seen_cache_size", 0)
+                    .field("jitter", 0)
+                    .field("stats_interval", "1s");
+        for (Map.Entry<String, Object> setting : rssSettings.entrySet()) {
+            river.field(setting.getKey(), setting.getValue());
+        }
+        river.startArray("feeds")
+                        .startObject()
+                            .field("url", url)
+                            .field("update_rate", 1000)
+                            .field("ignore_ttl", true)
+                        .endObject()
+                    .endArray()
+                .endObject()
+                .startObject("index")
+                    .field("flush_interval", "500ms")
+                .endObject()
+                .endObject();
+
+        logger.info("  --> river meant to be created: {}", river.string());
+
+        return river;
+    }
+
+    /**
+     * Local HTTP feed. It sends an ETag and a Last-Modified date for each version of the feed
+     * and answers 304 when the client sends back the ETag of the current version.
+     */
+    private static class FeedServer implements HttpHandler {
+        private final HttpServer server;
+        private final AtomicInteger version = new AtomicInteger(1);
+        // Number of entries of the first version
+        private final int entries;
+        // If-None-Match and If-Modified-Since headers of each request
+        private final List<String[]> validators = new CopyOnWriteArrayList<String[]>();
+
+        private FeedServer() throws IOException {
+            this(2);
+        }
+
+        private FeedServer(int entries) throws IOException {
+            this.entries = entries;
+            server = HttpServer.create(new InetSocketAddress(0), 0);
+            server.createContext("/feed", this);
+            server.start();
+        }
+
+        private String url() {
+            return "http://127.0.0.1:" + server.getAddress().getPort() + "/feed";
+        }
+
+        private static String etag(int version) {
+            return "\"v" + version + "\"";
+        }
+
+        /**
+         * Each version publishes one more entry and publishes again the previous ones with a new date
+         */
+        private byte[] feed(int version) throws IOException {
+            String date = LAST_MODIFIED[version - 1];
+            StringBuilder rss = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?><rss version=\"2.0\"><channel>")
+                    .append("<title>Local feed</title><link>http://localhost/</link><description>Local feed</description>")
+                    .append("<pubDate>").append(date).append("</pubDate>");
+            for (int i = 1; i < entries + version; i++) {
+                rss.append("<item><title>Entry ").append(i).append("</title>")
+                        .append("<guid>http://localhost/entry/").append(i).append("</guid>")
+                        .append("<description>Entry ").append(i).append("</description>")
+                        .append("<pubDate>").append(date).append("</pubDate></item>");
+            }
+            rss.append("</channel></rss>");
+            return rss.toString().getBytes("UTF-8");
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            int current = version.get();
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            validators.add(new String[] { ifNoneMatch, exchange.getRequestHeaders().getFirst("If-Modified-Since") });
+            exchange.getResponseHeaders().set("ETag", etag(current));
+            exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED[current - 1]);
+            if (etag(current).equals(ifNoneMatch)) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                byte[] body = feed(current);
+                exchange.getResponseHeaders().set("Content-Type", "application/rss+xml; charset=UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            }
+            exchange.close();
+        }
+
+        /**
+         * @return true if a request sent these validators
+         */
+        private boolean received(String etag, String lastModified) {
+            for (String[] request : validators) {
+                if (etag.equals(request[0]) && lastModified.equals(request[1])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void stop() {
+            server.stop(0);
+        }
+    }
+
     private void startRiver(final String riverName, final String lastupdate_id, XContentBuilder river) throws InterruptedException {
         logger.info("  --> starting river [{}]", riverName);
         createIndex(riverName);
@@ -291,4 +539,314 @@ public class RssRiverAllParametersTest extends ElasticsearchIntegrationTest {
         // We wait for some documents
         existSomeDocs("nytimes");
     }
+
+    /**
+     * Start a river without any feed in _meta then add a feed document
+     */
+    @Test
+    public void test_feed_document_added() throws IOException, InterruptedException {
+        createIndex("added");
+        index("_river", "added", "_meta", createRiverWithFeedDocuments());
+
+        indexFeedDocument("added", "lemonde", "lemonde");
+        waitForChange("added", getLastUpdatedId("lemonde"));
+        waitForFeed("added", "lemonde", "lemonde");
+
+        refresh();
+        existSomeDocs("added", "lemonde");
+    }
+
+    /**
+     * Delete a feed document: its feed is stopped, other feeds go on
+     */
+    @Test
+    public void test_feed_document_deleted() throws IOException, InterruptedException {
+        createIndex("deleted");
+        index("_river", "deleted", "_meta", createRiverWithFeedDocuments());
+
+        indexFeedDocument("deleted", "lemonde", "lemonde");
+        indexFeedDocument("deleted", "lefigaro", "lefigaro");
+        waitForFeed("deleted", "lemonde", "lemonde");
+        waitForFeed("deleted", "lefigaro", "lefigaro");
+
+        logger.info("  --> deleting feed document [lefigaro]");
+        client().prepareDelete("_river", "deleted", "feed_lefigaro").execute().actionGet();
+        refresh();
+        waitForFeed("deleted", "lefigaro", null);
+        waitForFeed("deleted", "lemonde", "lemonde");
+    }
+
+    /**
+     * Modify a feed document: the feed is polled with its new definition
+     */
+    @Test
+    public void test_feed_document_modified() throws IOException, InterruptedException {
+        createIndex("modified");
+        index("_river", "modified", "_meta", createRiverWithFeedDocuments());
+
+        indexFeedDocument("modified", "lemonde", "lemonde");
+        waitForChange("modified", getLastUpdatedId("lemonde"));
+        waitForFeed("modified", "lemonde", "lemonde");
+
+        indexFeedDocument("modified", "lemonde_modified", "lemonde");
+        waitForFeed("modified", "lemonde", "lemonde_modified");
+
+        // The feed goes on from its previous state
+        GetResponse getResponse = client().prepareGet("_river", "modified", getLastUpdatedId("lemonde"))
+                .execute().actionGet();
+        assertThat(getResponse.isExists(), equalTo(true));
+    }
+
+    /**
+     * A feed document with the url of a feed of _meta replaces it
+     */
+    @Test
+    public void test_feed_document_overrides_meta() throws IOException, InterruptedException {
+        startRiver("overrides", getLastUpdatedId("lemonde"), createRiverWithFeedDocuments("lemonde", "lefigaro"));
+        waitForFeed("overrides", "lemonde", "lemonde");
+
+        indexFeedDocument("overrides", "lemonde_document", "lemonde");
+        waitForFeed("overrides", "lemonde", "lemonde_document");
+        waitForFeed("overrides", "lefigaro", "lefigaro");
+    }
+
+    /**
+     * Validators sent by the server are kept in the feed state and sent back.
+     * A 304 answer does not parse nor index the feed again. A new version of the feed
+     * only indexes entries which don't exist yet in the index.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_conditional_get() throws IOException, InterruptedException {
+        FeedServer feedServer = new FeedServer();
+        try {
+            final String url = feedServer.url();
+            final String lastupdateId = "_lastupdated_" + UUID.nameUUIDFromBytes(url.getBytes()).toString();
+            startRiver("conditional", lastupdateId, createHttpRiver(url));
+
+            GetResponse getResponse = client().prepareGet("_river", "conditional", lastupdateId).execute().actionGet();
+            Map<String, Object> state = (Map<String, Object>) getResponse.getSourceAsMap().get("rss");
+            assertThat(state.get(RssFeedState.ETAG), equalTo((Object) FeedServer.etag(1)));
+            assertThat(state.get(RssFeedState.LAST_MODIFIED), equalTo((Object) LAST_MODIFIED[0]));
+
+            // Next polls send validators back and get a 304: the feed is not parsed again
+            waitForFeedStats("conditional", url, "status.304", 2);
+            assertThat(feedServer.received(FeedServer.etag(1), LAST_MODIFIED[0]), equalTo(true));
+            Map<String, Object> feed = getFeedStats("conditional", url);
+            assertThat(((Number) XContentMapValues.extractValue("parse.count", feed)).longValue(), equalTo(1L));
+            assertThat(((Number) XContentMapValues.extractValue("entries.indexed", feed)).longValue(), equalTo(2L));
+
+            // A new version: existing entries are found with a multi get and not indexed again
+            feedServer.version.set(2);
+            waitForFeedStats("conditional", url, "entries.indexed", 3);
+            waitForFeedStats("conditional", url, "entries.duplicates", 2);
+            assertThat("Feed state should have been updated", awaitBusy(new Predicate<Object>() {
+                @Override
+                public boolean apply(Object o) {
+                    GetResponse getResponse = client().prepareGet("_river", "conditional", lastupdateId).execute().actionGet();
+                    Map<String, Object> state = (Map<String, Object>) getResponse.getSourceAsMap().get("rss");
+                    return FeedServer.etag(2).equals(state.get(RssFeedState.ETAG));
+                }
+            }, 10, TimeUnit.SECONDS), equalTo(true));
+
+            refresh();
+            SearchResponse response = client().prepareSearch("conditional").setVersion(true).execute().actionGet();
+            assertThat(response.getHits().getTotalHits(), equalTo(3L));
+            for (SearchHit hit : response.getHits()) {
+                assertThat(hit.getVersion(), equalTo(1L));
+            }
+        } finally {
+            feedServer.stop();
+        }
+    }
+
+    /**
+     * The feed state is read with a realtime get: the river does not need _river to be refreshed
+     */
+    @Test
+    public void test_state_read_in_realtime() throws IOException, InterruptedException {
+        FeedServer feedServer = new FeedServer();
+        try {
+            String url = feedServer.url();
+            String lastupdateId = "_lastupdated_" + UUID.nameUUIDFromBytes(url.getBytes()).toString();
+            client().admin().indices().prepareCreate("_river")
+                    .setSettings(ImmutableSettings.settingsBuilder().put("index.refresh_interval", -1))
+                    .execute().actionGet();
+            index("_river", "realtime", lastupdateId, jsonBuilder().startObject()
+                    .startObject("rss")
+                        .field(RssFeedState.ETAG, FeedServer.etag(1))
+                        .field(RssFeedState.LAST_MODIFIED, LAST_MODIFIED[0])
+                    .endObject()
+                    .endObject());
+            createIndex("realtime");
+            index("_river", "realtime", "_meta", createHttpRiver(url));
+
+            // The very first poll already sends the validators we stored
+            waitForFeedStats("realtime", url, "status.304", 1);
+            assertThat(feedServer.validators.get(0)[0], equalTo(FeedServer.etag(1)));
+            assertThat(feedServer.validators.get(0)[1], equalTo(LAST_MODIFIED[0]));
+            assertThat(XContentMapValues.extractValue("status.200", getFeedStats("realtime", url)), nullValue());
+        } finally {
+            feedServer.stop();
+        }
+    }
+
+    /**
+     * Entries are looked up in the index with multi get requests of at most 100 ids: a feed
+     * published again with more entries than that is not indexed twice
+     */
+    @Test
+    public void test_existing_entries_checked_in_batches() throws IOException, InterruptedException {
+        FeedServer feedServer = new FeedServer(250);
+        try {
+            final String url = feedServer.url();
+            String lastupdateId = "_lastupdated_" + UUID.nameUUIDFromBytes(url.getBytes()).toString();
+            Map<String, Object> rssSettings = new HashMap<String, Object>();
+            // Entries are looked up by the polling thread
+            rssSettings.put("pipeline_size", 0);
+            startRiver("batches", lastupdateId, createHttpRiver(url, rssSettings));
+            waitForFeedStats("batches", url, "entries.indexed", 250);
+
+            // All entries are published again with a new date and a new one
+            feedServer.version.set(2);
+            waitForFeedStats("batches", url, "entries.indexed", 251);
+            waitForFeedStats("batches", url, "entries.duplicates", 250);
+            Map<String, Object> feed = getFeedStats("batches", url);
+            assertThat(((Number) XContentMapValues.extractValue("entries.indexed", feed)).longValue(), equalTo(251L));
+
+            refresh();
+            SearchResponse response = client().prepareSearch("batches").setVersion(true).setSize(300).execute().actionGet();
+            assertThat(response.getHits().getTotalHits(), equalTo(251L));
+            for (SearchHit hit : response.getHits()) {
+                assertThat(hit.getVersion(), equalTo(1L));
+            }
+        } finally {
+            feedServer.stop();
+        }
+    }
+
+    /**
+     * A single polling thread polls both feeds again and again. Once the river is removed,
+     * no poll is scheduled anymore.
+     */
+    @Test
+    public void test_polls_rescheduled_until_river_closed() throws IOException, InterruptedException {
+        final FeedServer feedServer1 = new FeedServer();
+        final FeedServer feedServer2 = new FeedServer();
+        try {
+            XContentBuilder river = jsonBuilder().prettyPrint().startObject()
+                    .field("type", "rss")
+                    .startObject("rss")
+                        .field("pool_size", 1)
+                        .field("jitter", 0)
+                        .startArray("feeds");
+            for (FeedServer feedServer : new FeedServer[] { feedServer1, feedServer2 }) {
+                river.startObject()
+                        .field("url", feedServer.url())
+                        .field("update_rate", 500)
+                        .field("ignore_ttl", true)
+                        .endObject();
+            }
+            river.endArray()
+                    .endObject()
+                    .startObject("index")
+                        .field("flush_interval", "500ms")
+                    .endObject()
+                    .endObject();
+            createIndex("scheduled");
+            index("_river", "scheduled", "_meta", river);
+
+            assertThat("Both feeds should be polled several times", awaitBusy(new Predicate<Object>() {
+                @Override
+                public boolean apply(Object o) {
+                    return feedServer1.validators.size() >= 3 && feedServer2.validators.size() >= 3;
+                }
+            }, 10, TimeUnit.SECONDS), equalTo(true));
+
+            logger.info("  --> removing river [scheduled]");
+            client().prepareDelete("_river", "scheduled", "_meta").execute().actionGet();
+            // Let the river close
+            Thread.sleep(2000);
+            int polls1 = feedServer1.validators.size();
+            int polls2 = feedServer2.validators.size();
+            Thread.sleep(2000);
+            assertThat(feedServer1.validators.size(), equalTo(polls1));
+            assertThat(feedServer2.validators.size(), equalTo(polls2));
+        } finally {
+            feedServer1.stop();
+            feedServer2.stop();
+        }
+    }
+
+    /**
+     * The feed state is read once from _river and then kept in memory: next polls don't read it again
+     */
+    @Test
+    public void test_state_kept_in_memory() throws IOException, InterruptedException {
+        final FeedServer feedServer = new FeedServer();
+        try {
+            String url = feedServer.url();
+            String lastupdateId = "_lastupdated_" + UUID.nameUUIDFromBytes(url.getBytes()).toString();
+            startRiver("memory", lastupdateId, createHttpRiver(url));
+            waitForFeedStats("memory", url, "status.304", 1);
+
+            // Validators changed behind the river are not read
+            index("_river", "memory", lastupdateId, jsonBuilder().startObject()
+                    .startObject("rss")
+                        .field(RssFeedState.ETAG, "\"other\"")
+                        .field(RssFeedState.LAST_MODIFIED, LAST_MODIFIED[1])
+                    .endObject()
+                    .endObject());
+            refresh();
+            final int polls = feedServer.validators.size();
+            assertThat("Feed should be polled again", awaitBusy(new Predicate<Object>() {
+                @Override
+                public boolean apply(Object o) {
+                    return feedServer.validators.size() >= polls + 3;
+                }
+            }, 10, TimeUnit.SECONDS), equalTo(true));
+            for (String[] validators : feedServer.validators) {
+                assertThat(validators[0], not(equalTo("\"other\"")));
+            }
+            assertThat(feedServer.received(FeedServer.etag(1), LAST_MODIFIED[0]), equalTo(true));
+            assertThat(((Number) XContentMapValues.extractValue("parse.count", getFeedStats("memory", url))).longValue(), equalTo(1L));
+        } finally {
+            feedServer.stop();
+        }
+    }
+
+    /**
+     * Entries of large feeds are converted and indexed by chunks of 100 entries on pipeline threads.
+     * The last chunk is not full and the feed checkpoint is written once all chunks are indexed.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_large_feed_indexed_in_chunks() throws IOException, InterruptedException {
+        FeedServer feedServer = new FeedServer(349);
+        try {
+            String url = feedServer.url();
+            String lastupdateId = "_lastupdated_" + UUID.nameUUIDFromBytes(url.getBytes()).toString();
+            Map<String, Object> rssSettings = new HashMap<String, Object>();
+            rssSettings.put("pipeline_size", 3);
+            startRiver("chunks", lastupdateId, createHttpRiver(url, rssSettings));
+
+            GetResponse getResponse = client().prepareGet("_river", "chunks", lastupdateId).execute().actionGet();
+            Map<String, Object> state = (Map<String, Object>) getResponse.getSourceAsMap().get("rss");
+            assertThat(state.get(RssFeedState.ETAG), equalTo((Object) FeedServer.etag(1)));
+            waitForFeedStats("chunks", url, "entries.indexed", 349);
+
+            refresh();
+            SearchResponse response = client().prepareSearch("chunks").setSize(400).execute().actionGet();
+            assertThat(response.getHits().getTotalHits(), equalTo(349L));
+            Set<String> titles = new HashSet<String>();
+            for (SearchHit hit : response.getHits()) {
+                titles.add((String) hit.getSource().get("title"));
+            }
+            for (int i = 1; i <= 349; i++) {
+                assertThat(titles.contains("Entry " + i), equalTo(true));
+            }
+        } finally {
+            feedServer.stop();
+        }
+    }
 }
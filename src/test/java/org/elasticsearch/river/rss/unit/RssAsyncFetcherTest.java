@@ -0,0 +1,208 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss.unit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.river.rss.RssAsyncFetcher;
+import org.elasticsearch.river.rss.RssFetcher;
+import org.elasticsearch.test.ElasticsearchTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.Matchers.*;
+
+public class RssAsyncFetcherTest extends ElasticsearchTestCase {
+
+    private static final String CONTENT = "<rss><channel><title>Le Monde</title></channel></rss>";
+
+    private HttpServer server;
+    private RssAsyncFetcher asyncFetcher;
+    // Lets stalled handlers end once the test is done
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(0), 0);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        stopped.countDown();
+        if (asyncFetcher != null) {
+            asyncFetcher.close();
+        }
+        server.stop(0);
+    }
+
+    private RssFetcher fetcher(TimeValue readTimeout, ByteSizeValue maxBodySize) {
+        RssFetcher fetcher = new RssFetcher(TimeValue.timeValueSeconds(5), readTimeout, 1, maxBodySize, false, true);
+        asyncFetcher = new RssAsyncFetcher(ESLoggerFactory.getLogger("test"), ImmutableSettings.EMPTY, fetcher, 1);
+        return fetcher;
+    }
+
+    private String url(String host, String path) {
+        return "http://" + host + ":" + server.getAddress().getPort() + path;
+    }
+
+    private void redirect(String path, final int status, final String location) {
+        server.createContext(path, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().set("Location", location);
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+            }
+        });
+    }
+
+    private static void send(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/rss+xml; charset=UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } catch (IOException e) {
+            // Client may have stopped reading
+        }
+        exchange.close();
+    }
+
+    private static class Result implements ActionListener<RssFetcher.Response> {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile RssFetcher.Response response;
+        private volatile Throwable failure;
+
+        @Override
+        public void onResponse(RssFetcher.Response response) {
+            this.response = response;
+            latch.countDown();
+        }
+
+        @Override
+        public void onFailure(Throwable e) {
+            this.failure = e;
+            latch.countDown();
+        }
+
+        private void await() throws InterruptedException {
+            assertThat("no response from the fetcher", latch.await(10, TimeUnit.SECONDS), equalTo(true));
+        }
+    }
+
+    @Test
+    public void shouldFollowRedirects() throws Exception {
+        final RssFetcher fetcher = fetcher(TimeValue.timeValueSeconds(5), new ByteSizeValue(1, ByteSizeUnit.MB));
+        final AtomicBoolean originReleased = new AtomicBoolean(false);
+        final AtomicBoolean targetHeld = new AtomicBoolean(false);
+        redirect("/moved", 301, "/found");
+        // Another host name for the same server
+        redirect("/found", 302, url("localhost", "/feed"));
+        server.createContext("/feed", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // Only one connection per host is allowed
+                targetHeld.set(fetcher.tryAcquire("localhost") == null);
+                Semaphore origin = fetcher.tryAcquire("127.0.0.1");
+                if (origin != null) {
+                    originReleased.set(true);
+                    origin.release();
+                }
+                send(exchange, CONTENT.getBytes("UTF-8"));
+            }
+        });
+
+        Result result = new Result();
+        assertThat(asyncFetcher.fetch(url("127.0.0.1", "/moved"), null, null, result), equalTo(true));
+        result.await();
+        assertThat(result.failure, nullValue());
+        assertThat(result.response.getStatus(), equalTo(200));
+        assertThat(new String(Streams.copyToByteArray(result.response.getBody(new CounterMetric())), "UTF-8"), equalTo(CONTENT));
+        result.response.close();
+
+        assertThat(targetHeld.get(), equalTo(true));
+        assertThat(originReleased.get(), equalTo(true));
+        // All permits are back
+        assertThat(fetcher.tryAcquire("127.0.0.1"), notNullValue());
+        assertThat(fetcher.tryAcquire("localhost"), notNullValue());
+    }
+
+    @Test
+    public void shouldNotReadTooLargeFeed() throws Exception {
+        RssFetcher fetcher = fetcher(TimeValue.timeValueSeconds(5), new ByteSizeValue(100));
+        server.createContext("/large", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                send(exchange, new byte[10 * 1024]);
+            }
+        });
+
+        Result result = new Result();
+        assertThat(asyncFetcher.fetch(url("127.0.0.1", "/large"), null, null, result), equalTo(true));
+        result.await();
+        assertThat(result.response, nullValue());
+        assertThat(RssFetcher.isTooLarge(result.failure), equalTo(true));
+        assertThat(fetcher.tryAcquire("127.0.0.1"), notNullValue());
+    }
+
+    @Test
+    public void shouldTimeoutStalledServer() throws Exception {
+        RssFetcher fetcher = fetcher(TimeValue.timeValueMillis(500), new ByteSizeValue(1, ByteSizeUnit.MB));
+        server.createContext("/stalled", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    stopped.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.close();
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        Result result = new Result();
+        assertThat(asyncFetcher.fetch(url("127.0.0.1", "/stalled"), null, null, result), equalTo(true));
+        result.await();
+        assertThat(result.response, nullValue());
+        assertThat(result.failure, notNullValue());
+        assertThat(System.currentTimeMillis() - start, lessThan(5000L));
+        assertThat(fetcher.tryAcquire("127.0.0.1"), notNullValue());
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss.unit;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.river.rss.RssBulkSizer;
+import org.elasticsearch.test.ElasticsearchTestCase;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+
+public class RssBulkSizerTest extends ElasticsearchTestCase {
+
+    private RssBulkSizer sizer() {
+        return new RssBulkSizer(100, 10, 1000, TimeValue.timeValueSeconds(1));
+    }
+
+    @Test
+    public void shouldTuneTowardTargetLatency() {
+        RssBulkSizer sizer = sizer();
+        // Twice faster than expected
+        sizer.onResponse(100, 500);
+        assertThat(sizer.getActions(), equalTo(150));
+        // Twice slower than expected
+        sizer.onResponse(150, 3000);
+        assertThat(sizer.getActions(), equalTo(100));
+        // Small bulks sent on flush interval are ignored
+        sizer.onResponse(10, 10);
+        assertThat(sizer.getActions(), equalTo(100));
+        sizer.onFailure();
+        assertThat(sizer.getActions(), equalTo(50));
+    }
+
+    @Test
+    public void shouldStayWithinBounds() {
+        RssBulkSizer sizer = sizer();
+        for (int i = 0; i < 20; i++) {
+            sizer.onResponse(sizer.getActions(), 0);
+        }
+        assertThat(sizer.getActions(), equalTo(1000));
+        for (int i = 0; i < 20; i++) {
+            sizer.onFailure();
+        }
+        assertThat(sizer.getActions(), equalTo(10));
+    }
+
+    @Test
+    public void shouldTellWhenBulkIsFull() {
+        RssBulkSizer sizer = new RssBulkSizer(3, 1, 10, TimeValue.timeValueSeconds(1));
+        assertThat(sizer.onAdd(), equalTo(false));
+        assertThat(sizer.onAdd(), equalTo(false));
+        assertThat(sizer.onAdd(), equalTo(true));
+        sizer.onBulk();
+        assertThat(sizer.onAdd(), equalTo(false));
+    }
+}
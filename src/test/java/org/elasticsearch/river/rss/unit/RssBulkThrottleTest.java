@@ -0,0 +1,70 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss.unit;
+
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.river.rss.RssBulkThrottle;
+import org.elasticsearch.test.ElasticsearchTestCase;
+import org.junit.Test;
+
+import static org.elasticsearch.client.Requests.indexRequest;
+import static org.hamcrest.Matchers.equalTo;
+
+public class RssBulkThrottleTest extends ElasticsearchTestCase {
+
+    private IndexRequest request(int size) {
+        StringBuilder sb = new StringBuilder("{\"field\":\"");
+        while (sb.length() < size - 2) {
+            sb.append('a');
+        }
+        sb.append("\"}");
+        return indexRequest("test").type("page").source(sb.toString());
+    }
+
+    @Test
+    public void shouldLimitPendingActions() {
+        RssBulkThrottle throttle = new RssBulkThrottle(2, 0);
+        IndexRequest first = request(100);
+        IndexRequest second = request(100);
+        throttle.add(first);
+        assertThat(throttle.isOverloaded(), equalTo(false));
+        throttle.add(second);
+        assertThat(throttle.isOverloaded(), equalTo(true));
+        throttle.done(first);
+        assertThat(throttle.isOverloaded(), equalTo(false));
+        assertThat(throttle.getPendingActions(), equalTo(1L));
+    }
+
+    @Test
+    public void shouldLimitPendingBytes() {
+        RssBulkThrottle throttle = new RssBulkThrottle(0, 1000);
+        IndexRequest small = request(100);
+        IndexRequest big = request(1000);
+        throttle.add(small);
+        assertThat(throttle.isOverloaded(), equalTo(false));
+        assertThat(throttle.getPendingBytes(), equalTo(100L));
+        throttle.add(big);
+        assertThat(throttle.isOverloaded(), equalTo(true));
+        throttle.done(big);
+        assertThat(throttle.isOverloaded(), equalTo(false));
+        throttle.done(small);
+        assertThat(throttle.getPendingBytes(), equalTo(0L));
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss.unit;
+
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.river.rss.RssCheckpointCoordinator;
+import org.elasticsearch.test.ElasticsearchTestCase;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.elasticsearch.client.Requests.indexRequest;
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.hamcrest.Matchers.equalTo;
+
+public class RssCheckpointCoordinatorTest extends ElasticsearchTestCase {
+
+    private RssCheckpointCoordinator coordinator() {
+        return new RssCheckpointCoordinator(ESLoggerFactory.getLogger("test"), null, "test");
+    }
+
+    @Test
+    public void shouldWaitForContent() throws Exception {
+        RssCheckpointCoordinator coordinator = coordinator();
+        RssCheckpointCoordinator.Checkpoint checkpoint = coordinator.newCheckpoint("feed", null);
+        IndexRequest first = indexRequest("test").type("page").id("1");
+        IndexRequest second = indexRequest("test").type("page").id("2");
+        checkpoint.track(first);
+        checkpoint.track(second);
+        checkpoint.seal(jsonBuilder().startObject().endObject());
+        assertThat(coordinator.readyCount(), equalTo(0));
+
+        coordinator.done(first, false);
+        assertThat(coordinator.readyCount(), equalTo(0));
+        coordinator.done(second, false);
+        assertThat(coordinator.readyCount(), equalTo(1));
+        assertThat(coordinator.pendingCount(), equalTo(0));
+    }
+
+    @Test
+    public void shouldDropCheckpointOnFailure() throws Exception {
+        RssCheckpointCoordinator coordinator = coordinator();
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        RssCheckpointCoordinator.Checkpoint checkpoint = coordinator.newCheckpoint("feed", new Runnable() {
+            @Override
+            public void run() {
+                failed.set(true);
+            }
+        });
+        IndexRequest request = indexRequest("test").type("page").id("1");
+        checkpoint.track(request);
+        coordinator.done(request, true);
+        assertThat(failed.get(), equalTo(false));
+
+        checkpoint.seal(jsonBuilder().startObject().endObject());
+        assertThat(failed.get(), equalTo(true));
+        assertThat(coordinator.readyCount(), equalTo(0));
+    }
+
+    @Test
+    public void shouldKeepLastCheckpointPerFeed() throws Exception {
+        RssCheckpointCoordinator coordinator = coordinator();
+        coordinator.newCheckpoint("feed1", null).seal(jsonBuilder().startObject().endObject());
+        coordinator.newCheckpoint("feed1", null).seal(jsonBuilder().startObject().endObject());
+        coordinator.newCheckpoint("feed2", null).seal(jsonBuilder().startObject().endObject());
+        assertThat(coordinator.readyCount(), equalTo(2));
+    }
+
+    @Test
+    public void shouldDropOutdatedCheckpoint() throws Exception {
+        RssCheckpointCoordinator coordinator = coordinator();
+        RssCheckpointCoordinator.Checkpoint older = coordinator.newCheckpoint("feed", null);
+        RssCheckpointCoordinator.Checkpoint newer = coordinator.newCheckpoint("feed", null);
+        IndexRequest request = indexRequest("test").type("page").id("1");
+        older.track(request);
+        older.seal(jsonBuilder().startObject().endObject());
+
+        // The most recent poll completes first: it waits for the older one
+        newer.seal(jsonBuilder().startObject().endObject());
+        assertThat(coordinator.isReady(newer), equalTo(false));
+
+        coordinator.done(request, false);
+        assertThat(coordinator.isReady(older), equalTo(false));
+        assertThat(coordinator.isReady(newer), equalTo(true));
+        assertThat(coordinator.readyCount(), equalTo(1));
+    }
+
+    @Test
+    public void shouldDropCheckpointsAfterFailureUntilReset() throws Exception {
+        RssCheckpointCoordinator coordinator = coordinator();
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        RssCheckpointCoordinator.Checkpoint content = coordinator.newCheckpoint("feed", new Runnable() {
+            @Override
+            public void run() {
+                failed.set(true);
+            }
+        });
+        IndexRequest request = indexRequest("test").type("page").id("1");
+        content.track(request);
+        content.seal(jsonBuilder().startObject().endObject());
+
+        // A poll without new content still carries the state of the previous poll
+        RssCheckpointCoordinator.Checkpoint nothingNew = coordinator.newCheckpoint("feed", null);
+        nothingNew.seal(jsonBuilder().startObject().endObject());
+        assertThat(coordinator.readyCount(), equalTo(0));
+
+        coordinator.done(request, true);
+        assertThat(failed.get(), equalTo(true));
+        assertThat(coordinator.readyCount(), equalTo(0));
+
+        // Until the state is read again, checkpoints are dropped
+        coordinator.newCheckpoint("feed", null).seal(jsonBuilder().startObject().endObject());
+        assertThat(coordinator.readyCount(), equalTo(0));
+        coordinator.reset("feed");
+        RssCheckpointCoordinator.Checkpoint reloaded = coordinator.newCheckpoint("feed", null);
+        reloaded.seal(jsonBuilder().startObject().endObject());
+        assertThat(coordinator.isReady(reloaded), equalTo(true));
+    }
+
+    @Test
+    public void shouldFailDiscardedCheckpoint() throws Exception {
+        RssCheckpointCoordinator coordinator = coordinator();
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        RssCheckpointCoordinator.Checkpoint checkpoint = coordinator.newCheckpoint("feed", new Runnable() {
+            @Override
+            public void run() {
+                failed.set(true);
+            }
+        });
+        IndexRequest request = indexRequest("test").type("page").id("1");
+        checkpoint.track(request);
+        checkpoint.discard();
+        assertThat(failed.get(), equalTo(false));
+        coordinator.done(request, false);
+        assertThat(failed.get(), equalTo(true));
+        assertThat(coordinator.readyCount(), equalTo(0));
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss.unit;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.river.rss.RssCircuitBreaker;
+import org.elasticsearch.river.rss.RssFeedState;
+import org.elasticsearch.test.ElasticsearchTestCase;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+
+public class RssCircuitBreakerTest extends ElasticsearchTestCase {
+
+    private static final long MINUTE = TimeValue.timeValueMinutes(1).millis();
+
+    @Test
+    public void shouldOpenAfterThresholdWithExponentialBackoff() {
+        RssCircuitBreaker breaker = new RssCircuitBreaker(3, TimeValue.timeValueMinutes(1), TimeValue.timeValueMinutes(5));
+        RssFeedState state = new RssFeedState();
+        long now = 1000000;
+
+        assertThat(breaker.onFailure(state, "boom", now), equalTo(false));
+        assertThat(breaker.onFailure(state, "boom", now), equalTo(false));
+        assertThat(breaker.state(state, now), equalTo(RssCircuitBreaker.State.CLOSED));
+        assertThat(breaker.delay(state, now), equalTo(0L));
+
+        assertThat(breaker.onFailure(state, "boom", now), equalTo(true));
+        assertThat(breaker.state(state, now), equalTo(RssCircuitBreaker.State.OPEN));
+        assertThat(breaker.delay(state, now), equalTo(MINUTE));
+        assertThat(state.getLastError(), equalTo("boom"));
+
+        // Backoff is over: we can try once
+        now += MINUTE;
+        assertThat(breaker.state(state, now), equalTo(RssCircuitBreaker.State.HALF_OPEN));
+        assertThat(breaker.delay(state, now), equalTo(0L));
+
+        // It failed again: twice the previous delay
+        breaker.onFailure(state, "boom again", now);
+        assertThat(breaker.delay(state, now), equalTo(2 * MINUTE));
+        breaker.onFailure(state, "boom again", now);
+        assertThat(breaker.delay(state, now), equalTo(4 * MINUTE));
+        // Never more than max backoff
+        breaker.onFailure(state, "boom again", now);
+        assertThat(breaker.delay(state, now), equalTo(5 * MINUTE));
+        for (int i = 0; i < 100; i++) {
+            breaker.onFailure(state, "boom again", now);
+        }
+        assertThat(breaker.delay(state, now), equalTo(5 * MINUTE));
+
+        assertThat(breaker.onSuccess(state), equalTo(true));
+        assertThat(breaker.state(state, now), equalTo(RssCircuitBreaker.State.CLOSED));
+        assertThat(state.getFailures(), equalTo(0));
+        assertThat(breaker.onSuccess(state), equalTo(false));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldKeepFailuresInRiver() throws Exception {
+        RssCircuitBreaker breaker = new RssCircuitBreaker(1, TimeValue.timeValueMinutes(1), TimeValue.timeValueHours(1));
+        RssFeedState state = new RssFeedState();
+        long now = System.currentTimeMillis();
+        breaker.onFailure(state, "can not open connection", now);
+
+        Map<String, Object> river = XContentHelper.convertToMap(state.failuresToXContent().bytes(), false).v2();
+        RssFeedState read = RssFeedState.fromMap((Map<String, Object>) river.get("rss"), "_lastupdated");
+        assertThat(read.getFailures(), equalTo(1));
+        assertThat(read.getLastError(), equalTo("can not open connection"));
+        assertThat(read.getLastFailure(), equalTo(state.getLastFailure()));
+        assertThat(read.getRetryAt(), equalTo(state.getRetryAt()));
+        assertThat(breaker.state(read, now), equalTo(RssCircuitBreaker.State.OPEN));
+
+        assertThat(((Map<String, Object>) river.get("rss")).get(RssFeedState.FAILURES), equalTo((Object) 1));
+        assertThat(((Map<String, Object>) river.get("rss")).containsKey(RssFeedState.GUIDS), equalTo(false));
+
+        // Checkpoints written once content is indexed must not undo failures written since
+        river = XContentHelper.convertToMap(state.toXContent("_lastupdated").bytes(), false).v2();
+        assertThat(((Map<String, Object>) river.get("rss")).containsKey(RssFeedState.FAILURES), equalTo(false));
+        assertThat(((Map<String, Object>) river.get("rss")).containsKey(RssFeedState.RETRY_AT), equalTo(false));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss.unit;
+
+import com.rometools.rome.feed.synd.SyndEntry;
+import com.rometools.rome.feed.synd.SyndEntryImpl;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.river.rss.RssContentHash;
+import org.elasticsearch.river.rss.RssFeedState;
+import org.elasticsearch.test.ElasticsearchTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+
+public class RssContentHashTest extends ElasticsearchTestCase {
+
+    private SyndEntry entry(String guid, long date) {
+        SyndEntry entry = new SyndEntryImpl();
+        entry.setUri(guid);
+        entry.setPublishedDate(new Date(date));
+        return entry;
+    }
+
+    private List<SyndEntry> entries(SyndEntry... entries) {
+        List<SyndEntry> list = new ArrayList<SyndEntry>();
+        for (SyndEntry entry : entries) {
+            list.add(entry);
+        }
+        return list;
+    }
+
+    @Test
+    public void shouldHashBody() throws Exception {
+        byte[] body = "<rss><channel><lastBuildDate>Mon, 01 Dec 2014 10:00:00 GMT</lastBuildDate></channel></rss>".getBytes("UTF-8");
+        byte[] same = body.clone();
+        byte[] other = "<rss><channel><lastBuildDate>Mon, 01 Dec 2014 10:05:00 GMT</lastBuildDate></channel></rss>".getBytes("UTF-8");
+
+        assertThat(RssContentHash.body(same, same.length), equalTo(RssContentHash.body(body, body.length)));
+        assertThat(RssContentHash.body(other, other.length), not(equalTo(RssContentHash.body(body, body.length))));
+        assertThat(RssContentHash.body(body, body.length - 1), not(equalTo(RssContentHash.body(body, body.length))));
+    }
+
+    @Test
+    public void shouldHashOrderedEntries() throws Exception {
+        String hash = RssContentHash.entries(entries(entry("1", 1000), entry("2", 2000)));
+
+        assertThat(RssContentHash.entries(entries(entry("1", 1000), entry("2", 2000))), equalTo(hash));
+        // New entry
+        assertThat(RssContentHash.entries(entries(entry("0", 3000), entry("1", 1000), entry("2", 2000))), not(equalTo(hash)));
+        // Updated entry
+        assertThat(RssContentHash.entries(entries(entry("1", 1000), entry("2", 2500))), not(equalTo(hash)));
+        // Entries order changed
+        assertThat(RssContentHash.entries(entries(entry("2", 2000), entry("1", 1000))), not(equalTo(hash)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldKeepHashesInFeedState() throws Exception {
+        RssFeedState state = new RssFeedState();
+        state.setBodyHash("body");
+        state.setEntriesHash("entries");
+
+        Map<String, Object> river = XContentHelper.convertToMap(state.toXContent("_lastupdated").bytes(), false).v2();
+        RssFeedState read = RssFeedState.fromMap((Map<String, Object>) river.get("rss"), "_lastupdated");
+        assertThat(read.getBodyHash(), equalTo("body"));
+        assertThat(read.getEntriesHash(), equalTo("entries"));
+    }
+}
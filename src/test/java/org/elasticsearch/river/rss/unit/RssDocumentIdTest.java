@@ -0,0 +1,87 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss.unit;
+
+import com.rometools.rome.feed.synd.SyndContentImpl;
+import com.rometools.rome.feed.synd.SyndEntry;
+import com.rometools.rome.feed.synd.SyndEntryImpl;
+import org.elasticsearch.river.rss.RssDocumentId;
+import org.elasticsearch.test.ElasticsearchTestCase;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+
+public class RssDocumentIdTest extends ElasticsearchTestCase {
+
+    private SyndEntry entry(String guid, String link, String title, String description) {
+        SyndEntry entry = new SyndEntryImpl();
+        entry.setUri(guid);
+        entry.setLink(link);
+        entry.setTitle(title);
+        if (description != null) {
+            SyndContentImpl content = new SyndContentImpl();
+            content.setValue(description);
+            entry.setDescription(content);
+        }
+        return entry;
+    }
+
+    @Test
+    public void shouldKeepLegacyIds() {
+        SyndEntry entry = entry("guid", "http://www.example.com/1", "title", "my description");
+        assertThat(RssDocumentId.id(RssDocumentId.Strategy.LEGACY, entry),
+                equalTo(UUID.nameUUIDFromBytes("my description".getBytes()).toString()));
+    }
+
+    @Test
+    public void shouldUseGuidThenLink() {
+        String id = RssDocumentId.id(RssDocumentId.Strategy.GUID, entry("guid", "http://www.example.com/1", "title", "description"));
+        assertThat(RssDocumentId.id(RssDocumentId.Strategy.GUID, entry("guid", "http://www.example.com/2", "other", "other")),
+                equalTo(id));
+        assertThat(RssDocumentId.id(RssDocumentId.Strategy.GUID, entry(null, "guid", null, null)), equalTo(id));
+        assertThat(RssDocumentId.id(RssDocumentId.Strategy.GUID, entry("other guid", null, null, null)), not(equalTo(id)));
+    }
+
+    @Test
+    public void shouldNotCollideWithoutDescription() {
+        String id1 = RssDocumentId.id(RssDocumentId.Strategy.GUID, entry(null, null, "title 1", null));
+        String id2 = RssDocumentId.id(RssDocumentId.Strategy.GUID, entry(null, null, "title 2", null));
+        assertThat(id1, not(equalTo(id2)));
+        // While legacy ids are the same
+        assertThat(RssDocumentId.legacyId(entry(null, null, "title 1", null)),
+                equalTo(RssDocumentId.legacyId(entry(null, null, "title 2", null))));
+    }
+
+    @Test
+    public void shouldHashNonAsciiAndLargeContent() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            sb.append("\u00e9t\u00e9 \u20ac \ud83d\ude00 ");
+        }
+        String description = sb.toString();
+        String id = RssDocumentId.id(RssDocumentId.Strategy.GUID, entry(null, null, null, description));
+        assertThat(RssDocumentId.id(RssDocumentId.Strategy.GUID, entry(null, null, null, description)), equalTo(id));
+        assertThat(RssDocumentId.id(RssDocumentId.Strategy.GUID, entry(null, null, null, " " + description + " ")), equalTo(id));
+        assertThat(RssDocumentId.id(RssDocumentId.Strategy.GUID, entry(null, null, null, "x" + description)), not(equalTo(id)));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss.unit;
+
+import org.elasticsearch.river.rss.RssFeedRing;
+import org.elasticsearch.test.ElasticsearchTestCase;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+
+public class RssFeedRingTest extends ElasticsearchTestCase {
+
+    private static final int FEEDS = 1000;
+
+    private static String url(int i) {
+        return "http://www.example" + (i % 10) + ".com/rss/" + i + ".xml";
+    }
+
+    @Test
+    public void shouldGiveEachFeedToOneNode() throws Exception {
+        RssFeedRing node1 = new RssFeedRing(Arrays.asList("node1", "node2", "node3"), "node1");
+        // Nodes may see other nodes in a different order
+        RssFeedRing node2 = new RssFeedRing(Arrays.asList("node3", "node1", "node2"), "node2");
+        RssFeedRing node3 = new RssFeedRing(Arrays.asList("node2", "node3", "node1"), "node3");
+
+        Map<String, Integer> feedsPerNode = new HashMap<String, Integer>();
+        for (int i = 0; i < FEEDS; i++) {
+            String url = url(i);
+            int owners = (node1.isLocal(url) ? 1 : 0) + (node2.isLocal(url) ? 1 : 0) + (node3.isLocal(url) ? 1 : 0);
+            assertThat(owners, equalTo(1));
+            String owner = node1.owner(url);
+            Integer count = feedsPerNode.get(owner);
+            feedsPerNode.put(owner, count == null ? 1 : count + 1);
+        }
+        // Feeds are evenly spread
+        assertThat(feedsPerNode.size(), equalTo(3));
+        for (Integer count : feedsPerNode.values()) {
+            assertThat(count, greaterThan(FEEDS / 6));
+        }
+    }
+
+    @Test
+    public void shouldOnlyMoveFeedsOfJoiningOrLeavingNode() throws Exception {
+        RssFeedRing before = new RssFeedRing(Arrays.asList("node1", "node2", "node3"), "node1");
+        RssFeedRing after = new RssFeedRing(Arrays.asList("node1", "node2", "node3", "node4"), "node1");
+
+        int moved = 0;
+        for (int i = 0; i < FEEDS; i++) {
+            String url = url(i);
+            if (!before.owner(url).equals(after.owner(url))) {
+                assertThat(after.owner(url), equalTo("node4"));
+                moved++;
+            }
+        }
+        assertThat(moved, greaterThan(0));
+        assertThat(moved, lessThan(FEEDS / 2));
+
+        // node4 leaves: its feeds go back where they were
+        for (int i = 0; i < FEEDS; i++) {
+            String url = url(i);
+            if (!"node4".equals(after.owner(url))) {
+                assertThat(before.owner(url), equalTo(after.owner(url)));
+            }
+        }
+    }
+
+    @Test
+    public void shouldNotPollWithoutNodes() throws Exception {
+        RssFeedRing ring = new RssFeedRing(Collections.<String>emptyList(), "node1");
+        assertThat(ring.owner(url(1)), nullValue());
+        assertThat(ring.isLocal(url(1)), equalTo(false));
+    }
+}
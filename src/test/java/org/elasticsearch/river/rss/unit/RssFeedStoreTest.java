@@ -0,0 +1,187 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss.unit;
+
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.river.rss.RssFeedStore;
+import org.elasticsearch.test.ElasticsearchTestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+
+public class RssFeedStoreTest extends ElasticsearchTestCase {
+
+    private RssFeedStore store(File dir, long segmentSize, long maxSize) throws IOException {
+        return new RssFeedStore(ESLoggerFactory.getLogger("test"), dir, segmentSize, maxSize);
+    }
+
+    private static List<RssFeedStore.Record> readAll(RssFeedStore store) throws IOException {
+        final List<RssFeedStore.Record> records = new ArrayList<RssFeedStore.Record>();
+        store.read(new RssFeedStore.Visitor() {
+            @Override
+            public boolean visit(RssFeedStore.Record record) {
+                records.add(record);
+                return true;
+            }
+        });
+        return records;
+    }
+
+    private static void append(RssFeedStore store, String url, long time, String content) throws IOException {
+        byte[] body = content.getBytes("UTF-8");
+        store.append(url, time, "text/xml; charset=UTF-8", body, body.length);
+    }
+
+    @Test
+    public void shouldReadWhatWasWritten() throws Exception {
+        File dir = createTempDir();
+        RssFeedStore store = store(dir, 100, 0);
+        append(store, "http://www.lemonde.fr/rss/une.xml", 1000, "<rss>1</rss>");
+        append(store, "http://rss.lefigaro.fr/lefigaro/laune", 2000, "<rss>2</rss>");
+        byte[] body = "<rss>3</rss>".getBytes("UTF-8");
+        store.append("http://www.lemonde.fr/rss/une.xml", 3000, null, body, body.length);
+        store.close();
+
+        // Reopening the store starts a new segment
+        store = store(dir, 100, 0);
+        append(store, "http://www.lemonde.fr/rss/une.xml", 4000, "<rss>4</rss>");
+
+        List<RssFeedStore.Record> records = readAll(store);
+        assertThat(records, hasSize(4));
+        assertThat(records.get(0).getUrl(), equalTo("http://www.lemonde.fr/rss/une.xml"));
+        assertThat(records.get(0).getTime(), equalTo(1000L));
+        assertThat(records.get(0).getContentType(), equalTo("text/xml; charset=UTF-8"));
+        assertThat(new String(records.get(0).getBody(), "UTF-8"), equalTo("<rss>1</rss>"));
+        assertThat(records.get(1).getUrl(), equalTo("http://rss.lefigaro.fr/lefigaro/laune"));
+        assertThat(records.get(2).getContentType(), nullValue());
+        assertThat(new String(records.get(3).getBody(), "UTF-8"), equalTo("<rss>4</rss>"));
+        store.close();
+
+        try {
+            append(store, "http://www.lemonde.fr/rss/une.xml", 5000, "<rss>5</rss>");
+            fail("store is closed");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void shouldStopReading() throws Exception {
+        RssFeedStore store = store(createTempDir(), 1024, 0);
+        for (int i = 0; i < 10; i++) {
+            append(store, "http://www.lemonde.fr/rss/une.xml", i, "<rss>" + i + "</rss>");
+        }
+        final List<RssFeedStore.Record> records = new ArrayList<RssFeedStore.Record>();
+        store.read(new RssFeedStore.Visitor() {
+            @Override
+            public boolean visit(RssFeedStore.Record record) {
+                records.add(record);
+                return records.size() < 3;
+            }
+        });
+        assertThat(records, hasSize(3));
+        store.close();
+    }
+
+    @Test
+    public void shouldIgnoreTruncatedRecord() throws Exception {
+        File dir = createTempDir();
+        RssFeedStore store = store(dir, 1024 * 1024, 0);
+        append(store, "http://www.lemonde.fr/rss/une.xml", 1000, "<rss>1</rss>");
+        append(store, "http://www.lemonde.fr/rss/une.xml", 2000, "<rss>2</rss>");
+        store.close();
+
+        File[] segments = dir.listFiles();
+        assertThat(segments.length, equalTo(1));
+        RandomAccessFile file = new RandomAccessFile(segments[0], "rw");
+        file.setLength(file.length() - 5);
+        file.close();
+
+        store = store(dir, 1024 * 1024, 0);
+        List<RssFeedStore.Record> records = readAll(store);
+        assertThat(records, hasSize(1));
+        assertThat(records.get(0).getTime(), equalTo(1000L));
+        store.close();
+    }
+
+    @Test
+    public void shouldRemoveOldestSegments() throws Exception {
+        RssFeedStore store = store(createTempDir(), 1, 200);
+        for (int i = 0; i < 20; i++) {
+            append(store, "http://www.lemonde.fr/rss/une.xml", i, "<rss>" + i + "</rss>");
+        }
+        List<RssFeedStore.Record> records = readAll(store);
+        assertThat(records.size(), lessThan(20));
+        assertThat(records.get(records.size() - 1).getTime(), equalTo(19L));
+        assertThat(store.size(), lessThanOrEqualTo(200L + 100));
+        store.close();
+    }
+
+    @Test
+    public void shouldCopyWhatIsRead() throws Exception {
+        byte[] content = "<rss><channel/></rss>".getBytes("UTF-8");
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        byte[] read = Streams.copyToByteArray(RssFeedStore.tee(new ByteArrayInputStream(content), copy));
+        assertThat(read, equalTo(content));
+        assertThat(copy.toByteArray(), equalTo(content));
+    }
+
+    @Test
+    public void shouldAppendSpooledBody() throws Exception {
+        File dir = createTempDir();
+        RssFeedStore store = store(dir, 1024 * 1024, 0);
+        append(store, "http://www.lemonde.fr/rss/une.xml", 1000, "<rss>1</rss>");
+        StringBuilder content = new StringBuilder("<rss>");
+        for (int i = 0; i < 10000; i++) {
+            content.append("<item>").append(i).append("</item>");
+        }
+        content.append("</rss>");
+        byte[] body = content.toString().getBytes("UTF-8");
+
+        RssFeedStore.Spool spool = store.spool();
+        byte[] read = Streams.copyToByteArray(RssFeedStore.tee(new ByteArrayInputStream(body), spool));
+        assertThat(read, equalTo(body));
+        assertThat(spool.getLength(), equalTo((long) body.length));
+        store.append("http://rss.lefigaro.fr/lefigaro/laune", 2000, "text/xml", spool);
+        spool.close();
+        append(store, "http://www.lemonde.fr/rss/une.xml", 3000, "<rss>3</rss>");
+
+        List<RssFeedStore.Record> records = readAll(store);
+        assertThat(records, hasSize(3));
+        assertThat(records.get(1).getUrl(), equalTo("http://rss.lefigaro.fr/lefigaro/laune"));
+        assertThat(records.get(1).getTime(), equalTo(2000L));
+        assertThat(records.get(1).getContentType(), equalTo("text/xml"));
+        assertThat(records.get(1).getBody(), equalTo(body));
+        assertThat(new String(records.get(2).getBody(), "UTF-8"), equalTo("<rss>3</rss>"));
+        store.close();
+
+        // Only the segment is left
+        assertThat(dir.listFiles().length, equalTo(1));
+    }
+}
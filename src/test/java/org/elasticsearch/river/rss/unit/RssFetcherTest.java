@@ -0,0 +1,176 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss.unit;
+
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.river.rss.RssFetcher;
+import org.elasticsearch.test.ElasticsearchTestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.hamcrest.Matchers.*;
+
+public class RssFetcherTest extends ElasticsearchTestCase {
+
+    private static final String CONTENT = "<rss><channel><title>Le Monde</title></channel></rss>";
+
+    private static String read(InputStream in) throws IOException {
+        return new String(Streams.copyToByteArray(in), "UTF-8");
+    }
+
+    @Test
+    public void shouldDecodeGzip() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(CONTENT.getBytes("UTF-8"));
+        gzip.close();
+        assertThat(read(RssFetcher.decode(new ByteArrayInputStream(out.toByteArray()), "gzip")), equalTo(CONTENT));
+    }
+
+    @Test
+    public void shouldDecodeDeflate() throws Exception {
+        // zlib wrapped
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DeflaterOutputStream deflate = new DeflaterOutputStream(out);
+        deflate.write(CONTENT.getBytes("UTF-8"));
+        deflate.close();
+        assertThat(read(RssFetcher.decode(new ByteArrayInputStream(out.toByteArray()), "deflate")), equalTo(CONTENT));
+
+        // raw deflate
+        out = new ByteArrayOutputStream();
+        deflate = new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+        deflate.write(CONTENT.getBytes("UTF-8"));
+        deflate.close();
+        assertThat(read(RssFetcher.decode(new ByteArrayInputStream(out.toByteArray()), "Deflate")), equalTo(CONTENT));
+    }
+
+    @Test
+    public void shouldNotDecodeIdentity() throws Exception {
+        assertThat(read(RssFetcher.decode(new ByteArrayInputStream(CONTENT.getBytes("UTF-8")), null)), equalTo(CONTENT));
+        assertThat(read(RssFetcher.decode(new ByteArrayInputStream(CONTENT.getBytes("UTF-8")), "identity")), equalTo(CONTENT));
+    }
+
+    @Test
+    public void shouldLimitBodySize() throws Exception {
+        byte[] content = CONTENT.getBytes("UTF-8");
+        assertThat(read(new RssFetcher.BoundedInputStream(new ByteArrayInputStream(content), content.length)), equalTo(CONTENT));
+        RssFetcher.BoundedInputStream bounded = new RssFetcher.BoundedInputStream(new ByteArrayInputStream(content), content.length - 1);
+        try {
+            read(bounded);
+            fail("feed should be too big");
+        } catch (RssFetcher.TooLargeException e) {
+            assertThat(e.getMessage(), containsString("bigger than"));
+        }
+        assertThat(bounded.isExceeded(), equalTo(true));
+    }
+
+    @Test
+    public void shouldAbortOnContentLength() throws Exception {
+        RssFetcher.checkContentLength(null, 100);
+        RssFetcher.checkContentLength("100", 100);
+        RssFetcher.checkContentLength("not a number", 100);
+        RssFetcher.checkContentLength("500000000", 0);
+        try {
+            RssFetcher.checkContentLength("500000000", 100);
+            fail("feed should be too big");
+        } catch (RssFetcher.TooLargeException e) {
+            assertThat(RssFetcher.isTooLarge(e), equalTo(true));
+        }
+    }
+
+    @Test
+    public void shouldDetectTooLargeCause() {
+        IOException tooLarge = new RssFetcher.TooLargeException("feed is bigger than 10mb");
+        assertThat(RssFetcher.isTooLarge(new RuntimeException(new IOException(tooLarge))), equalTo(true));
+        assertThat(RssFetcher.isTooLarge(new RuntimeException(new IOException("connection reset"))), equalTo(false));
+        assertThat(RssFetcher.isTooLarge(null), equalTo(false));
+    }
+
+    @Test
+    public void shouldNotReadTooLargeBufferedResponse() throws Exception {
+        byte[] content = CONTENT.getBytes("UTF-8");
+        RssFetcher.Response response = new RssFetcher.BufferedResponse(200, new HashMap<String, String>(), content, 10);
+        try {
+            read(response.getBody(new CounterMetric()));
+            fail("feed should be too big");
+        } catch (RssFetcher.TooLargeException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void shouldReadBufferedResponse() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(CONTENT.getBytes("UTF-8"));
+        gzip.close();
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("content-encoding", "gzip");
+        headers.put("ETag", "\"1234\"");
+        CounterMetric bytes = new CounterMetric();
+
+        RssFetcher.Response response = new RssFetcher.BufferedResponse(200, headers, out.toByteArray(), 1024);
+        assertThat(response.getHeader("etag"), equalTo("\"1234\""));
+        assertThat(response.getHeader("Content-Encoding"), equalTo("gzip"));
+        assertThat(response.isNotModified(), equalTo(false));
+        assertThat(read(response.getBody(bytes)), equalTo(CONTENT));
+        assertThat(bytes.count(), equalTo((long) out.size()));
+
+        response = new RssFetcher.BufferedResponse(304, new HashMap<String, String>(), new byte[0], 1024);
+        assertThat(response.isNotModified(), equalTo(true));
+
+        response = new RssFetcher.BufferedResponse(500, new HashMap<String, String>(), new byte[0], 1024);
+        try {
+            response.getBody(bytes);
+            fail("server error should not be read as a feed");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("500"));
+        }
+    }
+
+    @Test
+    public void shouldFetchLocalFeed() throws Exception {
+        RssFetcher fetcher = new RssFetcher(TimeValue.timeValueSeconds(1), TimeValue.timeValueSeconds(1), 1,
+                new ByteSizeValue(10, ByteSizeUnit.MB), true, true);
+        CounterMetric bytes = new CounterMetric();
+        RssFetcher.Response response = fetcher.fetch(getClass().getResource("/lemonde/rss.xml").toString(), null, null);
+        try {
+            assertThat(response.getStatus(), equalTo(-1));
+            assertThat(response.isNotModified(), equalTo(false));
+            assertThat(read(response.getBody(bytes)), containsString("<rss"));
+        } finally {
+            response.close();
+        }
+        assertThat(bytes.count(), greaterThan(0L));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss.unit;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.river.rss.RssHostLimiter;
+import org.elasticsearch.test.ElasticsearchTestCase;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+
+public class RssHostLimiterTest extends ElasticsearchTestCase {
+
+    @Test
+    public void shouldReadHost() {
+        assertThat(RssHostLimiter.host("http://www.LeMonde.fr/rss/une.xml"), equalTo("www.lemonde.fr"));
+        assertThat(RssHostLimiter.host("file:/tmp/rss.xml"), nullValue());
+        assertThat(RssHostLimiter.host("not an url"), nullValue());
+    }
+
+    @Test
+    public void shouldAllowBurstThenLimitRate() {
+        RssHostLimiter limiter = new RssHostLimiter(2, 3, TimeValue.timeValueMinutes(1));
+        long now = 1000000;
+        assertThat(limiter.tryAcquire("www.lemonde.fr", now), equalTo(0L));
+        assertThat(limiter.tryAcquire("www.lemonde.fr", now), equalTo(0L));
+        assertThat(limiter.tryAcquire("www.lemonde.fr", now), equalTo(0L));
+        // Bucket is empty: a token comes back every 500ms
+        assertThat(limiter.tryAcquire("www.lemonde.fr", now), equalTo(500L));
+        assertThat(limiter.tryAcquire("www.lemonde.fr", now + 250), equalTo(250L));
+        assertThat(limiter.tryAcquire("www.lemonde.fr", now + 500), equalTo(0L));
+
+        // Other hosts are not limited
+        assertThat(limiter.tryAcquire("rss.lefigaro.fr", now), equalTo(0L));
+        // Nor feeds without host
+        assertThat(limiter.tryAcquire(null, now), equalTo(0L));
+
+        // Never more than the burst size
+        now += 60000;
+        for (int i = 0; i < 3; i++) {
+            assertThat(limiter.tryAcquire("www.lemonde.fr", now), equalTo(0L));
+        }
+        assertThat(limiter.tryAcquire("www.lemonde.fr", now), greaterThan(0L));
+    }
+
+    @Test
+    public void shouldGiveBackUnusedToken() {
+        RssHostLimiter limiter = new RssHostLimiter(1, 1, TimeValue.timeValueMinutes(1));
+        long now = 1000000;
+        assertThat(limiter.tryAcquire("www.lemonde.fr", now), equalTo(0L));
+        assertThat(limiter.tryAcquire("www.lemonde.fr", now), equalTo(1000L));
+        // The request could not be sent
+        limiter.release("www.lemonde.fr");
+        assertThat(limiter.tryAcquire("www.lemonde.fr", now), equalTo(0L));
+
+        // Never more than the burst size
+        limiter.release("www.lemonde.fr");
+        limiter.release("www.lemonde.fr");
+        assertThat(limiter.tryAcquire("www.lemonde.fr", now), equalTo(0L));
+        assertThat(limiter.tryAcquire("www.lemonde.fr", now), equalTo(1000L));
+    }
+
+    @Test
+    public void shouldNotLimitWhenDisabled() {
+        RssHostLimiter limiter = new RssHostLimiter(0, 1, TimeValue.timeValueMinutes(1));
+        for (int i = 0; i < 100; i++) {
+            assertThat(limiter.tryAcquire("www.lemonde.fr", 1000), equalTo(0L));
+        }
+    }
+
+    @Test
+    public void shouldOnlyLimitWhenConfigured() {
+        RssHostLimiter limiter = RssHostLimiter.fromSettings(null);
+        for (int i = 0; i < 100; i++) {
+            assertThat(limiter.tryAcquire("www.lemonde.fr", 1000), equalTo(0L));
+        }
+        // Hosts asking us to slow down are still paused
+        limiter.onThrottled("www.lemonde.fr", 0, 1000);
+        assertThat(limiter.tryAcquire("www.lemonde.fr", 1000), equalTo(60000L));
+
+        Map<String, Object> httpSettings = new HashMap<String, Object>();
+        httpSettings.put("max_requests_per_second_per_host", 1);
+        httpSettings.put("host_burst", 2);
+        limiter = RssHostLimiter.fromSettings(httpSettings);
+        assertThat(limiter.tryAcquire("www.lemonde.fr", 1000), equalTo(0L));
+        assertThat(limiter.tryAcquire("www.lemonde.fr", 1000), equalTo(0L));
+        assertThat(limiter.tryAcquire("www.lemonde.fr", 1000), equalTo(1000L));
+    }
+
+    @Test
+    public void shouldPauseThrottledHost() {
+        RssHostLimiter limiter = new RssHostLimiter(0, 1, TimeValue.timeValueMinutes(1));
+        long now = 1000000;
+        // Unknown Retry-After
+        limiter.onThrottled("www.lemonde.fr", 0, now);
+        assertThat(limiter.tryAcquire("www.lemonde.fr", now), equalTo(60000L));
+        assertThat(limiter.tryAcquire("www.lemonde.fr", now + 60000), equalTo(0L));
+
+        // Retry-After sent by the server
+        limiter.onThrottled("www.lemonde.fr", now + 120000, now + 60000);
+        assertThat(limiter.tryAcquire("www.lemonde.fr", now + 60000), equalTo(60000L));
+        assertThat(limiter.tryAcquire("rss.lefigaro.fr", now + 60000), equalTo(0L));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss.unit;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.river.rss.RssPollingRate;
+import org.elasticsearch.river.rss.RssStaxFeedReader;
+import org.elasticsearch.test.ElasticsearchTestCase;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.hamcrest.Matchers.*;
+
+public class RssPollingRateTest extends ElasticsearchTestCase {
+
+    private RssPollingRate adaptive() {
+        return new RssPollingRate(TimeValue.timeValueMinutes(15), true, TimeValue.timeValueMinutes(5), TimeValue.timeValueHours(1));
+    }
+
+    @Test
+    public void shouldBackOffOnQuietFeeds() {
+        RssPollingRate rate = adaptive();
+        rate.onPoll(0);
+        assertThat(rate.getInterval().minutes(), equalTo(30L));
+        rate.onPoll(0);
+        rate.onPoll(0);
+        assertThat(rate.getInterval().minutes(), equalTo(60L));
+    }
+
+    @Test
+    public void shouldTightenOnBusyFeeds() {
+        RssPollingRate rate = adaptive();
+        rate.onPoll(10);
+        assertThat(rate.getInterval().millis(), equalTo(TimeValue.timeValueSeconds(450).millis()));
+        rate.onPoll(10);
+        rate.onPoll(10);
+        assertThat(rate.getInterval().minutes(), equalTo(5L));
+    }
+
+    @Test
+    public void shouldNotAdaptWhenNotAdaptive() {
+        RssPollingRate rate = new RssPollingRate(TimeValue.timeValueMinutes(15), false,
+                TimeValue.timeValueMinutes(5), TimeValue.timeValueHours(1));
+        rate.onPoll(0);
+        rate.setTtl(120);
+        rate.setCacheControl("max-age=7200");
+        assertThat(rate.nextDelay(0), equalTo(TimeValue.timeValueMinutes(15).millis()));
+    }
+
+    @Test
+    public void shouldHonorTtlAndCacheControl() {
+        RssPollingRate rate = adaptive();
+        rate.setTtl(20);
+        assertThat(rate.nextDelay(0), equalTo(TimeValue.timeValueMinutes(20).millis()));
+        rate.setCacheControl("public, max-age=3600");
+        assertThat(rate.nextDelay(0), equalTo(TimeValue.timeValueHours(1).millis()));
+        rate.setCacheControl("no-cache, max-age=3600");
+        assertThat(rate.nextDelay(0), equalTo(TimeValue.timeValueMinutes(20).millis()));
+    }
+
+    @Test
+    public void shouldHonorRetryAfter() {
+        RssPollingRate rate = new RssPollingRate(TimeValue.timeValueMinutes(15), false,
+                TimeValue.timeValueMinutes(5), TimeValue.timeValueHours(1));
+        rate.setRetryAfter("7200", 1000);
+        assertThat(rate.nextDelay(1000), equalTo(TimeValue.timeValueHours(2).millis()));
+
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("GMT"), Locale.ROOT);
+        calendar.clear();
+        calendar.set(2014, Calendar.DECEMBER, 1, 12, 0, 0);
+        long now = calendar.getTimeInMillis();
+        rate.setRetryAfter("Mon, 01 Dec 2014 15:00:00 GMT", now);
+        assertThat(rate.nextDelay(now), equalTo(TimeValue.timeValueHours(3).millis()));
+
+        rate.setRetryAfter(null, now);
+        assertThat(rate.nextDelay(now), equalTo(TimeValue.timeValueMinutes(15).millis()));
+    }
+
+    @Test
+    public void shouldSkipHoursAndDays() {
+        RssPollingRate rate = adaptive();
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("GMT"), Locale.ROOT);
+        calendar.clear();
+        // Monday
+        calendar.set(2014, Calendar.DECEMBER, 1, 22, 50, 0);
+        long now = calendar.getTimeInMillis();
+
+        rate.setSkip(Arrays.asList(23, 0), null);
+        // 23:05 is skipped, we go to 01:00
+        assertThat(rate.skip(now, TimeValue.timeValueMinutes(15).millis()), equalTo(TimeValue.timeValueMinutes(130).millis()));
+        // 22:55 is fine
+        assertThat(rate.skip(now, TimeValue.timeValueMinutes(5).millis()), equalTo(TimeValue.timeValueMinutes(5).millis()));
+
+        rate.setSkip(null, Collections.singletonList("Tuesday"));
+        // Monday 23:05 is fine
+        assertThat(rate.skip(now, TimeValue.timeValueMinutes(15).millis()), equalTo(TimeValue.timeValueMinutes(15).millis()));
+        // Tuesday is skipped, we go to Wednesday 00:00
+        assertThat(rate.skip(now, TimeValue.timeValueMinutes(90).millis()), equalTo(TimeValue.timeValueMinutes(24 * 60 + 70).millis()));
+    }
+
+    @Test
+    public void shouldReadSkipHoursAndDaysWithStax() throws Exception {
+        RssStaxFeedReader reader = new RssStaxFeedReader(new StringReader("<rss version=\"2.0\"><channel>" +
+                "<title>test</title><ttl>30</ttl>" +
+                "<skipHours><hour>0</hour><hour>1</hour></skipHours>" +
+                "<skipDays><day>Saturday</day><day>Sunday</day></skipDays>" +
+                "<item><title>item</title></item></channel></rss>"));
+        assertThat(reader.getTtl(), equalTo(30));
+        assertThat(reader.getSkipHours(), contains(0, 1));
+        assertThat(reader.getSkipDays(), contains("Saturday", "Sunday"));
+        assertThat(reader.hasNext(), equalTo(true));
+        reader.close();
+    }
+}
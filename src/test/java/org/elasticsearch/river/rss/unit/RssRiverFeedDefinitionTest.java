@@ -0,0 +1,66 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss.unit;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.river.rss.RssRiverFeedDefinition;
+import org.elasticsearch.test.ElasticsearchTestCase;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+public class RssRiverFeedDefinitionTest extends ElasticsearchTestCase {
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> feed(String json) {
+        return (Map<String, Object>) XContentHelper.convertToMap(json.getBytes(), false).v2().get("feed");
+    }
+
+    @Test
+    public void shouldReadFeedDocument() throws Exception {
+        String json = jsonBuilder().startObject().startObject("feed")
+                .field("name", "liberation")
+                .field("url", "http://rss.liberation.fr/rss/latest/")
+                .field("update_rate", "10m")
+                .field("ignore_ttl", true)
+                .endObject().endObject().string();
+        RssRiverFeedDefinition definition = RssRiverFeedDefinition.fromMap(feed(json));
+        assertThat(definition.getFeedname(), equalTo("liberation"));
+        assertThat(definition.getUrl(), equalTo("http://rss.liberation.fr/rss/latest/"));
+        assertThat(definition.getUpdateRate().millis(), equalTo(TimeValue.timeValueMinutes(10).millis()));
+        assertThat(definition.isIgnoreTtl(), equalTo(true));
+    }
+
+    @Test
+    public void shouldUseDefaults() throws Exception {
+        String json = jsonBuilder().startObject().startObject("feed")
+                .field("url", "http://rss.liberation.fr/rss/latest/")
+                .endObject().endObject().string();
+        RssRiverFeedDefinition definition = RssRiverFeedDefinition.fromMap(feed(json));
+        assertThat(definition.getFeedname(), nullValue());
+        assertThat(definition.getUpdateRate().millis(), equalTo(TimeValue.timeValueMinutes(15).millis()));
+        assertThat(definition.isIgnoreTtl(), equalTo(false));
+    }
+}
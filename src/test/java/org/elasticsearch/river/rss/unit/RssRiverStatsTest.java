@@ -0,0 +1,106 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss.unit;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.river.rss.RssBulkThrottle;
+import org.elasticsearch.river.rss.RssRiverStats;
+import org.elasticsearch.river.rss.RssSeenIdCache;
+import org.elasticsearch.test.ElasticsearchTestCase;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.hamcrest.Matchers.*;
+
+public class RssRiverStatsTest extends ElasticsearchTestCase {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldReportRiverAndFeedStats() throws Exception {
+        RssRiverStats stats = new RssRiverStats("myriver");
+        stats.setThrottle(new RssBulkThrottle(10, 0));
+        stats.onBulk(10, 100, 1);
+        stats.onBulk(5, 300, 0);
+        stats.onRetry();
+
+        RssRiverStats.Feed feed = stats.feed("lemonde", "http://www.lemonde.fr/rss/une.xml");
+        assertThat(stats.feed("lemonde", "http://www.lemonde.fr/rss/une.xml"), sameInstance(feed));
+        feed.onPoll();
+        feed.onStatus(200);
+        feed.onPoll();
+        feed.onStatus(304);
+        feed.getFetch().inc(20);
+        feed.getFetch().inc(40);
+        feed.getBytes().inc(1024);
+        feed.getEntries().inc(15);
+        feed.getSkipped().inc(5);
+        feed.getDuplicates().inc(2);
+        feed.getIndexed().inc(8);
+        feed.onError("boom");
+        feed.getUnchanged().inc();
+        RssSeenIdCache seenIds = new RssSeenIdCache(100);
+        seenIds.add("a");
+        seenIds.contains("a");
+        seenIds.contains("b");
+        seenIds.contains("c");
+        feed.setSeenIds(seenIds);
+
+        XContentBuilder builder = jsonBuilder().startObject();
+        stats.toXContent(builder, ToXContent.EMPTY_PARAMS);
+        builder.endObject();
+        Map<String, Object> map = XContentHelper.convertToMap(builder.bytes(), false).v2();
+
+        assertThat(XContentMapValues.extractValue("river", map), equalTo((Object) "myriver"));
+        assertThat(XContentMapValues.extractValue("bulk.count", map), equalTo((Object) 2));
+        assertThat(XContentMapValues.extractValue("bulk.max_time_in_millis", map), equalTo((Object) 300));
+        assertThat(XContentMapValues.extractValue("bulk.avg_time_in_millis", map), equalTo((Object) 200));
+        assertThat(XContentMapValues.extractValue("bulk.actions", map), equalTo((Object) 15));
+        assertThat(XContentMapValues.extractValue("bulk.failures", map), equalTo((Object) 1));
+        assertThat(XContentMapValues.extractValue("bulk.retries", map), equalTo((Object) 1));
+        assertThat(XContentMapValues.extractValue("bulk.pending_actions", map), equalTo((Object) 0));
+
+        List<Map<String, Object>> feeds = (List<Map<String, Object>>) map.get("feeds");
+        assertThat(feeds, hasSize(1));
+        Map<String, Object> feedMap = feeds.get(0);
+        assertThat(XContentMapValues.extractValue("name", feedMap), equalTo((Object) "lemonde"));
+        assertThat(XContentMapValues.extractValue("polls", feedMap), equalTo((Object) 2));
+        assertThat(XContentMapValues.extractValue("errors", feedMap), equalTo((Object) 1));
+        assertThat(XContentMapValues.extractValue("last_error", feedMap), equalTo((Object) "boom"));
+        assertThat(XContentMapValues.extractValue("unchanged", feedMap), equalTo((Object) 1));
+        assertThat(XContentMapValues.extractValue("status.200", feedMap), equalTo((Object) 1));
+        assertThat(XContentMapValues.extractValue("status.304", feedMap), equalTo((Object) 1));
+        assertThat(XContentMapValues.extractValue("fetch.avg_time_in_millis", feedMap), equalTo((Object) 30));
+        assertThat(XContentMapValues.extractValue("fetch.bytes_in_bytes", feedMap), equalTo((Object) 1024));
+        assertThat(XContentMapValues.extractValue("entries.total", feedMap), equalTo((Object) 15));
+        assertThat(XContentMapValues.extractValue("entries.skipped", feedMap), equalTo((Object) 5));
+        assertThat(XContentMapValues.extractValue("entries.duplicates", feedMap), equalTo((Object) 2));
+        assertThat(XContentMapValues.extractValue("entries.indexed", feedMap), equalTo((Object) 8));
+        assertThat(XContentMapValues.extractValue("seen_ids.size", feedMap), equalTo((Object) 1));
+        assertThat(XContentMapValues.extractValue("seen_ids.max_size", feedMap), equalTo((Object) 100));
+        assertThat(XContentMapValues.extractValue("seen_ids.hits", feedMap), equalTo((Object) 1));
+        assertThat(XContentMapValues.extractValue("seen_ids.misses", feedMap), equalTo((Object) 2));
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss.unit;
+
+import org.elasticsearch.river.rss.RssSeenIdCache;
+import org.elasticsearch.test.ElasticsearchTestCase;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+
+public class RssSeenIdCacheTest extends ElasticsearchTestCase {
+
+    @Test
+    public void shouldEvictLeastRecentlySeenIds() throws Exception {
+        RssSeenIdCache cache = new RssSeenIdCache(2);
+        cache.add("a");
+        cache.add("b");
+        // "a" is now the most recently seen
+        assertThat(cache.contains("a"), equalTo(true));
+        cache.add("c");
+
+        assertThat(cache.size(), equalTo(2));
+        assertThat(cache.contains("a"), equalTo(true));
+        assertThat(cache.contains("b"), equalTo(false));
+        assertThat(cache.contains("c"), equalTo(true));
+    }
+
+    @Test
+    public void shouldCountHitsAndMisses() throws Exception {
+        RssSeenIdCache cache = new RssSeenIdCache(10);
+        cache.add("a");
+        cache.contains("a");
+        cache.contains("b");
+        cache.remove("a");
+        cache.contains("a");
+
+        assertThat(cache.getHits(), equalTo(1L));
+        assertThat(cache.getMisses(), equalTo(2L));
+    }
+
+    @Test
+    public void shouldCountOneLookupForBothIds() throws Exception {
+        RssSeenIdCache cache = new RssSeenIdCache(10);
+        cache.add("legacy");
+        assertThat(cache.contains("a", "legacy"), equalTo(true));
+        assertThat(cache.contains("b", "other"), equalTo(false));
+        assertThat(cache.contains("c", null), equalTo(false));
+
+        assertThat(cache.getHits(), equalTo(1L));
+        assertThat(cache.getMisses(), equalTo(2L));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.river.rss.unit;
+
+import com.rometools.modules.georss.GeoRSSModule;
+import com.rometools.modules.georss.GeoRSSUtils;
+import com.rometools.rome.feed.synd.SyndEntry;
+import com.rometools.rome.feed.synd.SyndFeed;
+import com.rometools.rome.io.SyndFeedInput;
+import com.rometools.rome.io.XmlReader;
+import org.elasticsearch.river.rss.RssStaxFeedReader;
+import org.elasticsearch.test.ElasticsearchTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.elasticsearch.river.rss.RssToJson.toJson;
+import static org.hamcrest.Matchers.*;
+
+public class RssStaxFeedReaderTest extends ElasticsearchTestCase {
+
+    private static final String[] FEEDS = new String[] {
+            "darkreading", "dcrainmaker", "feedforall", "lefigaro", "lemonde", "malwaredomains", "nytimes", "reuters"
+    };
+
+    private SyndFeed readWithRome(String name) throws Exception {
+        return new SyndFeedInput().build(new XmlReader(getClass().getResource("/" + name + "/rss.xml")));
+    }
+
+    private RssStaxFeedReader readWithStax(String name) throws Exception {
+        return new RssStaxFeedReader(new XmlReader(getClass().getResource("/" + name + "/rss.xml")));
+    }
+
+    @Test
+    public void shouldReadSameEntriesAsRome() throws Exception {
+        for (String name : FEEDS) {
+            SyndFeed feed = readWithRome(name);
+            RssStaxFeedReader reader = readWithStax(name);
+            List<SyndEntry> entries = new ArrayList<SyndEntry>();
+            while (reader.hasNext()) {
+                entries.add(reader.next());
+            }
+            reader.close();
+
+            assertThat("feed " + name, reader.getPublishedDate(), equalTo(feed.getPublishedDate()));
+            assertThat("feed " + name, entries.size(), equalTo(feed.getEntries().size()));
+            for (int i = 0; i < entries.size(); i++) {
+                SyndEntry expected = feed.getEntries().get(i);
+                SyndEntry entry = entries.get(i);
+                assertThat("feed " + name, entry.getTitle(), equalTo(expected.getTitle()));
+                assertThat("feed " + name, entry.getLink(), equalTo(expected.getLink() != null ? expected.getLink().trim() : null));
+                assertThat("feed " + name, entry.getPublishedDate(), equalTo(expected.getPublishedDate()));
+                assertThat("feed " + name, entry.getDescription() != null ? entry.getDescription().getValue() : null,
+                        equalTo(expected.getDescription() != null ? expected.getDescription().getValue() : null));
+                assertThat("feed " + name, entry.getCategories().size(), equalTo(expected.getCategories().size()));
+                assertThat("feed " + name, entry.getEnclosures().size(), equalTo(expected.getEnclosures().size()));
+                assertThat("feed " + name, entry.getContents().size(), equalTo(expected.getContents().size()));
+            }
+        }
+    }
+
+    @Test
+    public void shouldReadTtl() throws Exception {
+        RssStaxFeedReader reader = readWithStax("lemonde");
+        assertThat(reader.getTtl(), equalTo(15));
+        reader.close();
+
+        reader = readWithStax("dcrainmaker");
+        assertThat(reader.getTtl(), equalTo(-1));
+        reader.close();
+    }
+
+    @Test
+    public void shouldReadGeoInformation() throws Exception {
+        RssStaxFeedReader reader = readWithStax("reuters");
+        assertThat(reader.hasNext(), equalTo(true));
+        GeoRSSModule geoRSSModule = GeoRSSUtils.getGeoRSS(reader.next());
+        reader.close();
+
+        assertThat(geoRSSModule, notNullValue());
+        assertThat(geoRSSModule.getPosition().getLatitude(), equalTo(41.8947384616695));
+        assertThat(geoRSSModule.getPosition().getLongitude(), equalTo(12.4839019775391));
+    }
+
+    @Test
+    public void shouldReadMedias() throws Exception {
+        RssStaxFeedReader reader = readWithStax("nytimes");
+        assertThat(reader.hasNext(), equalTo(true));
+        String json = toJson(reader.next(), null, null, true).string();
+        reader.close();
+
+        assertThat(json, containsString("\"medias\":[{"));
+    }
+
+    @Test
+    public void shouldReadRawContent() throws Exception {
+        RssStaxFeedReader reader = readWithStax("dcrainmaker");
+        while (reader.hasNext()) {
+            assertThat(toJson(reader.next(), null, null, true).string(), containsString("<p>"));
+        }
+        reader.close();
+    }
+}
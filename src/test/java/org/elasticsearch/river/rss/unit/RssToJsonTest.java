@@ -24,7 +24,11 @@ import com.rometools.rome.feed.synd.SyndFeed;
 import com.rometools.rome.io.FeedException;
 import com.rometools.rome.io.SyndFeedInput;
 import com.rometools.rome.io.XmlReader;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.river.rss.RssToJson;
 import org.elasticsearch.test.ElasticsearchTestCase;
 import org.hamcrest.core.SubstringMatcher;
@@ -59,6 +63,17 @@ public class RssToJsonTest extends ElasticsearchTestCase {
         assertThat(xContentBuilder.string(), equalTo(JSON));
     }
 
+    @Test
+    public void shouldSerializeToBytes() throws Exception {
+        final SyndEntryImpl entry = buildEntry();
+        BytesReference json = RssToJson.toBytes(entry, null, null, true, XContentType.JSON);
+        assertThat(json.toUtf8(), equalTo(JSON));
+
+        BytesReference smile = RssToJson.toBytes(entry, null, null, true, XContentType.SMILE);
+        assertThat(XContentFactory.xContentType(smile), equalTo(XContentType.SMILE));
+        assertThat(XContentHelper.convertToMap(smile, true).v2(), equalTo(XContentHelper.convertToMap(json, true).v2()));
+    }
+
     private SyndEntryImpl buildEntry() throws FeedException, IOException {
         SyndFeedInput input = new SyndFeedInput();
         SyndFeed feed = input.build(new XmlReader(getClass().getResource("/reuters/rss.xml")));